@@ -0,0 +1,151 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache of whole volume blocks, evicting the least recently used block when full.
+ * All methods are synchronized so one cache can be shared by every reader of a <code>Volume</code>
+ */
+public class BlockCache
+{
+    private final LinkedHashMap<Integer, byte[]> blocks;
+    private final int capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new, empty <code>BlockCache</code>
+     * @param capacity maximum number of blocks held at once
+     */
+    public BlockCache(int capacity)
+    {
+        this.capacity = capacity;
+        blocks = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest)
+            {
+                if (size() > BlockCache.this.capacity)
+                {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached data of a block, counting a hit or a miss. The returned array is shared and must not be modified
+     * @param blockNum block number to look up
+     * @return the block data, or <code>null</code> if the block is not cached
+     */
+    public synchronized byte[] get(int blockNum)
+    {
+        byte[] data = blocks.get(blockNum);
+        if (data == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return data;
+    }
+
+    /**
+     * Returns the cached data of a block without counting a hit or a miss, for callers that only use the cache when it happens to hold a block.
+     * The returned array is shared and must not be modified
+     * @param blockNum block number to look up
+     * @return the block data, or <code>null</code> if the block is not cached
+     */
+    public synchronized byte[] peek(int blockNum)
+    {
+        return blocks.get(blockNum);
+    }
+
+    /**
+     * Adds a block to the cache, evicting the least recently used block if the cache is full
+     * @param blockNum block number of the data
+     * @param data the block data, which the cache takes ownership of
+     */
+    public synchronized void put(int blockNum, byte[] data)
+    {
+        if (capacity > 0)
+        {
+            blocks.put(blockNum, data);
+        }
+    }
+
+    /**
+     * Removes a block from the cache, if it is cached
+     * @param blockNum block number to remove
+     */
+    public synchronized void remove(int blockNum)
+    {
+        blocks.remove(blockNum);
+    }
+
+    /**
+     * Removes every block from the cache, leaving the statistics untouched
+     */
+    public synchronized void clear()
+    {
+        blocks.clear();
+    }
+
+    /**
+     * Returns the maximum number of blocks this cache holds
+     * @return the capacity
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of blocks currently cached
+     * @return the number of blocks
+     */
+    public synchronized int size()
+    {
+        return blocks.size();
+    }
+
+    /**
+     * Returns the number of lookups that found their block in the cache
+     * @return the number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their block in the cache
+     * @return the number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of blocks removed to make room for others
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns a string representation of this <code>BlockCache</code>
+     * @return the string
+     */
+    public synchronized String toString()
+    {
+        return super.toString() + " [capacity: " + capacity + ", size: " + blocks.size() + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + "]";
+    }
+}
@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Maps the logical blocks of a file onto physical blocks of its volume, following the direct and indirect pointers of the file's <code>Inode</code> on demand.
+ * Only the indirect blocks along the path to a requested block are read, and the most recently used block at each level of indirection is remembered
+ * so that sequential lookups re-read nothing. Because of that memory an instance must not be used by several threads at once
+ */
+public class BlockMap
+{
+    private final Volume vol;
+    private final Inode inode;
+    private final int pointersPerBlock;
+    private final int[] lastBlock = new int[3];
+    private final ByteBuffer[] lastBuffer = new ByteBuffer[3];
+
+    private static final int DIRECT_POINTERS = 12;
+
+    /**
+     * Creates a new <code>BlockMap</code> for a file. No I/O is done until a block is resolved
+     * @param vol volume the file belongs to
+     * @param inode inode of the file
+     */
+    public BlockMap(Volume vol, Inode inode)
+    {
+        this.vol = vol;
+        this.inode = inode;
+        this.pointersPerBlock = vol.getBlockSize() / 4;
+    }
+
+    /**
+     * Returns the physical block holding a logical block of the file
+     * @param logical index of the block within the file, 0 being the first
+     * @return the physical block number, or 0 if the block is a hole or lies beyond the pointer tree
+     */
+    public int resolve(long logical)
+    {
+        long n = pointersPerBlock;
+        if (logical < DIRECT_POINTERS)
+        {
+            return inode.getDataPointer((int)logical);
+        }
+        logical -= DIRECT_POINTERS;
+        if (logical < n)
+        {
+            return pointerAt(0, inode.getIndirPointer(), (int)logical);
+        }
+        logical -= n;
+        if (logical < n * n)
+        {
+            int block = pointerAt(0, inode.getIndir2Pointer(), (int)(logical / n));
+            return pointerAt(1, block, (int)(logical % n));
+        }
+        logical -= n * n;
+        if (logical < n * n * n)
+        {
+            int block = pointerAt(0, inode.getIndir3Pointer(), (int)(logical / (n * n)));
+            block = pointerAt(1, block, (int)((logical / n) % n));
+            return pointerAt(2, block, (int)(logical % n));
+        }
+        return 0;
+    }
+
+    /**
+     * Reads one pointer out of an indirect block
+     * @param level depth of the indirect block below the inode, used to remember it for the next lookup
+     * @param block the indirect block number, 0 if the branch is a hole
+     * @param index index of the pointer within the block
+     * @return the pointer, 0 if it or its indirect block is a hole
+     */
+    private int pointerAt(int level, int block, int index)
+    {
+        if (block == 0)
+        {
+            return 0;
+        }
+        if (lastBlock[level] != block || lastBuffer[level] == null)
+        {
+            lastBuffer[level] = vol.getBlockBuffer(block);
+            lastBlock[level] = block;
+        }
+        return lastBuffer[level].getInt(index * 4);
+    }
+
+    /**
+     * Returns the inode this map reads its pointers from
+     * @return the inode
+     */
+    public Inode getInode()
+    {
+        return inode;
+    }
+}
@@ -0,0 +1,389 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Searches the contents of files in a volume for a byte string, in the manner of <code>grep -F</code>.
+ * Each file is streamed through one fixed size window per worker thread, never read whole, and scanned with Boyer–Moore–Horspool.
+ * The last bytes of each window are carried into the next, so matches that straddle block or window boundaries are found once and only once.
+ * Files are searched in parallel by a {@link TreeWalk}, each file's matching lines gathered and printed together, in order, when it is done.
+ * A file with more matching lines than fit in a worker's output buffer spills the rest to a temporary host file, so the output is only ever locked
+ * while a finished file's lines are printed, never while a file is read
+ */
+public class ContentSearch
+{
+    private final Volume vol;
+    private final byte[] pattern;
+    private final int[] shift = new int[256];
+    private final int parallelism;
+    private final int chunk;
+    private final ThreadLocal<byte[]> windows;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder matchingLines = new LongAdder();
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock output = new ReentrantLock();
+
+    private static final int CHUNK = 64 * 1024;
+    private static final int CONTEXT = 256;     //bytes of a matching line kept either side of the match
+    private static final int OUTPUT_BUFFER = 64 * 1024;  //characters of matching lines a worker gathers in memory before it spills them
+    private static final int COPY_BUFFER = 8 * 1024;
+
+    /**
+     * The matching lines of one file, gathered in memory up to <code>OUTPUT_BUFFER</code> characters and spilled to a temporary host file past that
+     */
+    private static class Matches
+    {
+        final StringBuilder lines = new StringBuilder();
+        private Path spill;
+        private Writer spilled;
+
+        /**
+         * Moves the lines gathered so far to the spill file once they fill the buffer, creating the file on first use
+         * @throws IOException if the spill file cannot be written
+         */
+        void spillIfFull() throws IOException
+        {
+            if (lines.length() >= OUTPUT_BUFFER)
+            {
+                if (spilled == null)
+                {
+                    spill = Files.createTempFile("grep", ".out");
+                    spilled = Files.newBufferedWriter(spill, StandardCharsets.UTF_8);
+                }
+                spilled.append(lines);
+                lines.setLength(0);
+            }
+        }
+
+        /**
+         * Prints every line gathered, spilled ones first, holding a lock only while they are printed so that they stay together
+         * @param out stream to print to
+         * @param lock lock shared by everything printing to <code>out</code>
+         * @throws IOException if the spill file cannot be read back
+         */
+        void printTo(PrintStream out, ReentrantLock lock) throws IOException
+        {
+            if (spilled != null)
+            {
+                spilled.close();
+            }
+            if (spill == null && lines.length() == 0)
+            {
+                return;
+            }
+            lock.lock();
+            try
+            {
+                if (spill != null)
+                {
+                    try (BufferedReader in = Files.newBufferedReader(spill, StandardCharsets.UTF_8))
+                    {
+                        char[] buf = new char[COPY_BUFFER];
+                        for (int n = in.read(buf); n >= 0; n = in.read(buf))
+                        {
+                            out.append(CharBuffer.wrap(buf, 0, n));
+                        }
+                    }
+                }
+                out.print(lines);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Deletes the spill file, if there is one
+         */
+        void discard()
+        {
+            try
+            {
+                if (spilled != null)
+                {
+                    spilled.close();
+                }
+                if (spill != null)
+                {
+                    Files.deleteIfExists(spill);
+                }
+            }
+            catch (IOException e)
+            {
+                //a temporary file left behind is harmless
+            }
+        }
+    }
+
+    /**
+     * Creates a new <code>ContentSearch</code>
+     * @param vol volume to search in
+     * @param pattern bytes to search for, not empty. Windows grow to hold a pattern longer than the usual chunk read
+     * @param parallelism number of worker threads to search files with
+     */
+    public ContentSearch(Volume vol, byte[] pattern, int parallelism)
+    {
+        this.vol = vol;
+        this.pattern = pattern.clone();
+        this.parallelism = parallelism;
+        int m = pattern.length;
+        for (int i = 0; i < shift.length; i++)
+        {
+            shift[i] = m;
+        }
+        for (int i = 0; i < m - 1; i++)
+        {
+            shift[pattern[i] & 0xff] = m - 1 - i; //distance from the last occurrence of each byte, bar the final one, to the end of the pattern
+        }
+        chunk = Math.max(CHUNK, m); //so a window always holds a whole match, and the bytes kept from the last window never outnumber those read
+        int window = chunk + CONTEXT + m;
+        windows = ThreadLocal.withInitial(() -> new byte[window]);
+    }
+
+    /**
+     * Searches a single file
+     * @param info the file's entry in its directory
+     * @param path path to print before each matching line
+     * @param out stream to print matching lines to
+     */
+    public void search(FileInfo info, String path, PrintStream out)
+    {
+        searchFile(info, path, out);
+    }
+
+    /**
+     * Searches the files in a directory, and with <code>recursive</code> those in every directory below it
+     * @param dir directory to search
+     * @param path path to print the files of <code>dir</code> under
+     * @param recursive whether to descend into subdirectories
+     * @param out stream to print matching lines to
+     */
+    public void search(Directory dir, String path, boolean recursive, PrintStream out)
+    {
+        new TreeWalk(vol, parallelism).walk(dir, path, new TreeWalk.Visitor<String>()
+        {
+            @Override
+            public String enterDirectory(Directory d, String dirPath)
+            {
+                return dirPath;
+            }
+
+            @Override
+            public String entry(FileInfo entry, String dirPath)
+            {
+                return (entry.getFileType() == FileInfo.TYPE_DIRECTORY && !recursive ? null : dirPath + "/" + entry.getName());
+            }
+
+            @Override
+            public void visitFile(FileInfo file, String filePath)
+            {
+                searchFile(file, filePath, out);
+            }
+
+            @Override
+            public void failed(String failedPath, RuntimeException e)
+            {
+                errors.add(failedPath + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Streams a file through this thread's window, printing each line holding a match as <code>path:line:text</code>.
+     * A file with a NUL byte in its first window is treated as binary, and only whether it matches is printed
+     * @param info the file's entry in its directory
+     * @param path path to print before each matching line
+     * @param out stream to print matching lines to
+     */
+    private void searchFile(FileInfo info, String path, PrintStream out)
+    {
+        Matches results = new Matches();
+        byte[] window = windows.get();
+        int m = pattern.length;
+        try
+        {
+            Ext2File file = new Ext2File(vol, info);
+            long size = file.size();
+            long base = 0;              //file offset of window[0]
+            int length = 0;             //bytes carried over at the start of the window
+            int searchFrom = 0;
+            long linesBefore = 0;       //newlines in the file before window[0]
+            long lastLine = -1;
+            boolean binary = false;
+            while (base + length < size)
+            {
+                int end = length + file.read(base + length, window, length, Math.min(chunk, window.length - length));
+                if (base == 0)
+                {
+                    binary = (indexOf(window, (byte)0, 0, end) >= 0);
+                }
+                int cursor = 0;
+                long lines = linesBefore;   //newlines in the file before window[cursor]
+                for (int p = find(window, searchFrom, end); p >= 0; p = find(window, p + 1, end))
+                {
+                    if (binary)
+                    {
+                        results.lines.append("Binary file ").append(path).append(" matches\n");
+                        matchingLines.increment();
+                        return;
+                    }
+                    lines += countNewlines(window, cursor, p);
+                    cursor = p;
+                    if (lines + 1 != lastLine)
+                    {
+                        lastLine = lines + 1;
+                        appendLine(results.lines, path, lastLine, window, p, end, base + end >= size);
+                        matchingLines.increment();
+                        results.spillIfFull();
+                    }
+                }
+                int keep = Math.min(end, CONTEXT + m); //enough to finish a match cut off at the end, and to show the context before it with the byte ahead of that
+                linesBefore = lines + (cursor <= end - keep ? countNewlines(window, cursor, end - keep) : -countNewlines(window, end - keep, cursor));
+                System.arraycopy(window, end - keep, window, 0, keep);
+                base += end - keep;
+                length = keep;
+                searchFrom = keep - (m - 1); //a match starting earlier lay wholly within the last window and was found there
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            errors.add(path + ": " + e.getMessage());
+        }
+        finally
+        {
+            files.increment();
+            try
+            {
+                results.printTo(out, output);
+            }
+            catch (IOException e)
+            {
+                errors.add(path + ": " + e.getMessage());
+            }
+            results.discard();
+        }
+    }
+
+    /**
+     * Returns the position of the first match of the pattern wholly within <code>data[from..to)</code>, using the Horspool bad character shift
+     * @param data bytes to search
+     * @param from first position a match may start at
+     * @param to end of the bytes to search
+     * @return the position of the match, or -1 if there is none
+     */
+    private int find(byte[] data, int from, int to)
+    {
+        int m = pattern.length;
+        int last = m - 1;
+        for (int i = from; i <= to - m; i += shift[data[i + last] & 0xff])
+        {
+            int j = last;
+            while (j >= 0 && data[i + j] == pattern[j])
+            {
+                j--;
+            }
+            if (j < 0)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the line holding a match, clipped to the context kept either side of it and to the window
+     * @param results lines recorded so far
+     * @param path path of the file
+     * @param line number of the line, from 1
+     * @param window the window holding the match
+     * @param match position of the match in the window
+     * @param end end of the data in the window
+     * @param atEof whether the window reaches the end of the file
+     */
+    private void appendLine(StringBuilder results, String path, long line, byte[] window, int match, int end, boolean atEof)
+    {
+        int start = match;
+        while (start > 0 && match - start < CONTEXT && window[start - 1] != '\n')
+        {
+            start--;
+        }
+        int stop = indexOf(window, (byte)'\n', match, Math.min(end, match + pattern.length + CONTEXT));
+        boolean clipped = (stop < 0 && !(atEof && match + pattern.length + CONTEXT >= end));
+        if (stop < 0)
+        {
+            stop = Math.min(end, match + pattern.length + CONTEXT);
+        }
+        results.append(path).append(':').append(line).append(':').append(start > 0 && window[start - 1] != '\n' ? "..." : "");
+        results.append(new String(window, start, stop - start, StandardCharsets.UTF_8));
+        results.append(clipped ? "...\n" : "\n");
+    }
+
+    /**
+     * Returns the position of the first occurrence of a byte in <code>data[from..to)</code>, or -1
+     */
+    private static int indexOf(byte[] data, byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (data[i] == b)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of newlines in <code>data[from..to)</code>
+     */
+    private static int countNewlines(byte[] data, int from, int to)
+    {
+        int count = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (data[i] == '\n')
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of files searched
+     * @return the number of files
+     */
+    public long getFilesSearched()
+    {
+        return files.sum();
+    }
+
+    /**
+     * Returns the number of matching lines found, counting each matching binary file once
+     * @return the number of lines
+     */
+    public long getMatchingLines()
+    {
+        return matchingLines.sum();
+    }
+
+    /**
+     * Returns a description of each file that could not be searched
+     * @return the errors
+     */
+    public List<String> getErrors()
+    {
+        return new ArrayList<>(errors);
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded cache of directory lookups, mapping normalised paths, and names within a parent directory, to inode numbers.
+ * Lookups that found nothing are cached too, as negative entries, so repeated misses do not re-read the directory.
+ * Both maps evict their least recently used entry when full, and all methods are synchronized so one cache can be shared by every reader of a <code>Volume</code>
+ */
+public class DentryCache
+{
+    /** Returned by lookups when nothing is cached for the path or name */
+    public static final int UNKNOWN = -1;
+    /** Returned by lookups, and stored, when the path or name is known not to exist. Inode 0 is never used by a file */
+    public static final int MISSING = 0;
+
+    private final LinkedHashMap<String, Integer> paths;
+    private final LinkedHashMap<Name, Integer> names;
+    private final int capacity;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a new, empty <code>DentryCache</code>
+     * @param capacity maximum number of entries held by each of the path and name maps
+     */
+    public DentryCache(int capacity)
+    {
+        this.capacity = capacity;
+        paths = new LinkedHashMap<String, Integer>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+            {
+                return size() > DentryCache.this.capacity;
+            }
+        };
+        names = new LinkedHashMap<Name, Integer>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Name, Integer> eldest)
+            {
+                return size() > DentryCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up the inode a normalised path resolves to
+     * @param path path as returned by <code>Directory.getPath()</code>
+     * @return the inode number, <code>MISSING</code> or <code>UNKNOWN</code>
+     */
+    public synchronized int lookupPath(String path)
+    {
+        return count(paths.get(path));
+    }
+
+    /**
+     * Records the inode a normalised path resolves to
+     * @param path path as returned by <code>Directory.getPath()</code>
+     * @param inodeNum the inode number, or <code>MISSING</code>
+     */
+    public synchronized void putPath(String path, int inodeNum)
+    {
+        if (capacity > 0)
+        {
+            paths.put(path, inodeNum);
+        }
+    }
+
+    /**
+     * Looks up the inode a name refers to within a directory
+     * @param parentInode inode number of the directory
+     * @param name name of the entry
+     * @return the inode number, <code>MISSING</code> or <code>UNKNOWN</code>
+     */
+    public synchronized int lookup(int parentInode, String name)
+    {
+        return count(names.get(new Name(parentInode, name)));
+    }
+
+    /**
+     * Records the inode a name refers to within a directory
+     * @param parentInode inode number of the directory
+     * @param name name of the entry
+     * @param inodeNum the inode number, or <code>MISSING</code>
+     */
+    public synchronized void put(int parentInode, String name, int inodeNum)
+    {
+        if (capacity > 0)
+        {
+            names.put(new Name(parentInode, name), inodeNum);
+        }
+    }
+
+    /**
+     * Counts a lookup result as a hit or a miss
+     * @param inodeNum the cached value, or <code>null</code>
+     * @return the value, or <code>UNKNOWN</code> for <code>null</code>
+     */
+    private int count(Integer inodeNum)
+    {
+        if (inodeNum == null)
+        {
+            misses++;
+            return UNKNOWN;
+        }
+        hits++;
+        return inodeNum;
+    }
+
+    /**
+     * Removes every entry from the cache, leaving the statistics untouched
+     */
+    public synchronized void clear()
+    {
+        paths.clear();
+        names.clear();
+    }
+
+    /**
+     * Returns the number of lookups that found a cached entry, negative entries included
+     * @return the number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that found nothing cached
+     * @return the number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns a string representation of this <code>DentryCache</code>
+     * @return the string
+     */
+    public synchronized String toString()
+    {
+        return super.toString() + " [capacity: " + capacity + ", paths: " + paths.size() + ", names: " + names.size() + ", hits: " + hits + ", misses: " + misses + "]";
+    }
+
+    /**
+     * Key of the name map, a name within a particular directory
+     */
+    private static final class Name
+    {
+        private final int parentInode;
+        private final String name;
+
+        private Name(int parentInode, String name)
+        {
+            this.parentInode = parentInode;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Name && ((Name)o).parentInode == parentInode && ((Name)o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(parentInode, name);
+        }
+    }
+}
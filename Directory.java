@@ -1,5 +1,4 @@
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -8,10 +7,14 @@ import java.util.*;
 public class Directory
 {
     private ArrayList<String> levels;
-    private ArrayList<FileInfo> files;
+    private Inode inode;
+    private ArrayList<FileInfo> files;  //decoded on first use
+    private int[] index;    //entry index + 1 for each hash slot, 0 when empty; built on first lookup
     private Volume vol;
     private String path;
 
+    private static final int ROOT_INODE = 2;
+
     /**
      * Creates an new Directory using the given inputs.
      * @param vol The volume which this Directory belongs to
@@ -29,13 +32,14 @@ public class Directory
             throw new RootReachedException();
         }
         StringTokenizer st = new StringTokenizer(path, "/");
-        levels = new ArrayList<>();
         String firstLevel = st.nextToken();
         if (!firstLevel.equals(vol.getLabel()))
         {
             this.path = parentPath + "/" + path;
-            st = new StringTokenizer(this.path, "/");
         }
+        tidyPath();
+        levels = new ArrayList<>();
+        st = new StringTokenizer(this.path, "/");
         while (st.hasMoreTokens())
         {
             String t = st.nextToken();
@@ -44,73 +48,130 @@ public class Directory
                 levels.add(t);
             }
         }
-        tidyPath();
-        getData(2);
         descend();
     }
 
     /**
-     * Traverses down filesystem to <code>path</code> directory by getting each successive directory's files form its data blocks
+     * Creates a Directory directly from its inode, without resolving its path
+     * @param vol The volume which this Directory belongs to
+     * @param path The path of this Directory, as returned by <code>getPath()</code>
+     * @param inodeNum The inode number of this Directory
+     */
+    public Directory(Volume vol, String path, int inodeNum)
+    {
+        this.vol = vol;
+        this.path = path;
+        getData(inodeNum);
+    }
+
+    /**
+     * Traverses down filesystem to <code>path</code> directory and reads its files from its data blocks.
+     * Each step is first looked up in the volume's <code>DentryCache</code>, and only directories whose entries are not cached are read
      * @throws NoSuchDirectoryException thrown when <code>path</code> cannot be found
+     * @throws NotADirectoryException thrown when <code>path</code> names something other than a directory
      */
     private void descend() throws NoSuchDirectoryException
     {
-        Iterator levelItr = levels.iterator();
-        Iterator fileItr;
-        while (levelItr.hasNext()) //loop through each requested directory
+        DentryCache cache = vol.getDentryCache();
+        int inodeNum = cache.lookupPath(path);
+        if (inodeNum == DentryCache.UNKNOWN)
         {
-            fileItr = files.iterator();
-            boolean present = false;
-            String next = (String)levelItr.next();
-            FileInfo f = null;
-            while (!present && fileItr.hasNext()) //attempt to match next directory in path against files found in preceding directory
+            inodeNum = ROOT_INODE;
+            for (String next : levels) //loop through each requested directory
             {
-                f = (FileInfo)fileItr.next();
-                if (next.equals(f.getName()))
+                int child = cache.lookup(inodeNum, next);
+                if (child == DentryCache.UNKNOWN)
                 {
-                    present = true;
+                    child = find(inodeNum, next);
+                    cache.put(inodeNum, next, child);
+                }
+                inodeNum = child;
+                if (inodeNum == DentryCache.MISSING)
+                {
+                    break;
                 }
             }
-            if (present)
-            {
-                getData(f.getInodeNum());
-            }
-            else
+            cache.putPath(path, inodeNum);
+        }
+        if (inodeNum == DentryCache.MISSING)
+        {
+            throw new NoSuchDirectoryException(path);
+        }
+        if (!vol.getInode(inodeNum).isDirectory()) //a file's data would otherwise be parsed as entries
+        {
+            throw new NotADirectoryException(path);
+        }
+        getData(inodeNum);
+    }
+
+    /**
+     * Finds an entry in a directory by name, comparing names in place without decoding any entries
+     * @param dirInode inode number of the directory to search
+     * @param name name of the entry to find
+     * @return inode number of the entry, or <code>DentryCache.MISSING</code> if there is no such entry or <code>dirInode</code> is not a directory
+     */
+    private int find(int dirInode, String name)
+    {
+        Inode dir = vol.getInode(dirInode);
+        if (!dir.isDirectory())
+        {
+            return DentryCache.MISSING;
+        }
+        byte[] nameB = name.getBytes(StandardCharsets.UTF_8);
+        DirentCursor entries = new DirentCursor(vol, dir);
+        while (entries.next()) //attempt to match next directory in path against files found in preceding directory
+        {
+            if (entries.nameEquals(nameB))
             {
-                throw new NoSuchDirectoryException(path);
+                return entries.inode();
             }
         }
+        return DentryCache.MISSING;
     }
 
     /**
-     * Get data from the data blocks of directory found at given <code>inodeNum</code>
+     * Makes the directory found at given <code>inodeNum</code> the one this Directory represents. Its entries are read when first needed
      * @param inodeNum the inode number of Directory to get data for
      */
     private void getData(int inodeNum)
     {
-        files = new ArrayList<>();
-        Inode inode = vol.getInode(inodeNum);
-        ByteBuffer buf;
-        int i = 0;
-        while ( i < 12 && inode.getDataPointers()[i] != 0)
+        inode = vol.getInode(inodeNum);
+        files = null;
+        index = null;
+    }
+
+    /**
+     * Returns the entries of this directory, decoding them from its data blocks on first use
+     * @return the entries
+     */
+    private ArrayList<FileInfo> files()
+    {
+        if (files == null)
         {
-            int nextEntry = 0;
-            buf = initByteBuffer(vol.getBlock(inode.getDataPointers()[i]));
-            while (nextEntry != 1024)
+            long start = ReadMetrics.start();
+            ArrayList<FileInfo> decoded = new ArrayList<>();
+            DirentCursor entries = entries();
+            while (entries.next())
             {
-                byte[] nameB = new byte[buf.get(6 + nextEntry)];
-                buf.position(8 + nextEntry);
-                buf.get(nameB, 0, buf.get(6 + nextEntry));
-                files.add(new FileInfo(buf.getInt(nextEntry), buf.getShort(4 + nextEntry), buf.get(6 + nextEntry), buf.get(7 + nextEntry), new String(nameB)));
-                nextEntry += files.get(files.size() - 1).getLength();
-                buf.position(nextEntry);
+                decoded.add(entries.toFileInfo());
             }
-            i++;
+            files = decoded;
+            ReadMetrics.record(ReadMetrics.Op.DIRECTORY_LOAD, start);
         }
+        return files;
+    }
+
+    /**
+     * Returns a new cursor over the entries of this directory, for callers that want to visit every entry without allocating
+     * @return the cursor, positioned before the first entry
+     */
+    public DirentCursor entries()
+    {
+        return new DirentCursor(vol, inode);
     }
 
     /**
-     * Trims occurrences of . and .. from <code>path</code>
+     * Normalises <code>path</code> by removing occurrences of . and resolving each .. against the level before it. The volume label is never removed
      */
     private void tidyPath()
     {
@@ -118,28 +179,20 @@ public class Directory
         ArrayList<String> newPathTokens = new ArrayList<>();
         while (st.hasMoreTokens())
         {
-            newPathTokens.add(st.nextToken());
-        }
-        for (String s : newPathTokens)
-        {
+            String s = st.nextToken();
             if (s.equals(".."))
             {
-                newPathTokens.remove(newPathTokens.indexOf(s) - 1);
-                newPathTokens.remove(s);
-                break;
+                if (newPathTokens.size() > 1)
+                {
+                    newPathTokens.remove(newPathTokens.size() - 1);
+                }
             }
-            else if (s.equals("."))
+            else if (!s.equals("."))
             {
-                newPathTokens.remove(s);
-                break;
+                newPathTokens.add(s);
             }
         }
-        path = "";
-        for (String s : newPathTokens)
-        {
-            path = path + s + "/";
-        }
-        path = path.substring(0, path.length() - 1);
+        path = String.join("/", newPathTokens);
     }
 
     public String getPath()
@@ -148,25 +201,66 @@ public class Directory
     }
 
     /**
-     * Returns contents of a directory in a form suited to being output in Unix like format
-     * @return array of <code>FileInfo</code> objects for all files in directory
+     * Finds an entry of this directory by name. The first lookup builds a hash index of the directory's entries, so each lookup after it takes constant time
+     * @param name name of the entry to find
+     * @return the entry, or <code>null</code> if this directory has no entry with that name
      */
-    public FileInfo[] getFileInfo()
+    public FileInfo lookup(String name)
+    {
+        if (index == null)
+        {
+            buildIndex();
+        }
+        byte[] nameB = name.getBytes(StandardCharsets.UTF_8);
+        int mask = index.length - 1;
+        for (int slot = spread(Arrays.hashCode(nameB)) & mask; index[slot] != 0; slot = (slot + 1) & mask)
+        {
+            FileInfo f = files.get(index[slot] - 1);
+            if (Arrays.equals(f.getNameBytes(), nameB))
+            {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the open addressing hash index used by <code>lookup</code>, keyed by raw name bytes and sized to at least twice the number of entries
+     */
+    private void buildIndex()
+    {
+        ArrayList<FileInfo> list = files();
+        int[] table = new int[Integer.highestOneBit(Math.max(1, list.size()) * 2 - 1) << 1];
+        int mask = table.length - 1;
+        for (int i = 0; i < list.size(); i++)
+        {
+            int slot = spread(Arrays.hashCode(list.get(i).getNameBytes())) & mask;
+            while (table[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        index = table;
+    }
+
+    /**
+     * Spreads the bits of a hash code so that similar names land far apart in the index
+     * @param h the hash code
+     * @return the spread hash
+     */
+    private static int spread(int h)
     {
-        return files.toArray(new FileInfo[files.size()]);
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
     }
 
     /**
-     * Creates and initialises a new <code>ByteBuffer</code> wrapping the given data, in little endian format
-     * @param data data to be wrapped
-     * @return buffer wrapping <code>data</code>
+     * Returns contents of a directory in a form suited to being output in Unix like format
+     * @return array of <code>FileInfo</code> objects for all files in directory
      */
-    private ByteBuffer initByteBuffer(byte[] data)
+    public FileInfo[] getFileInfo()
     {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        buf.put(data);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        buf.flip();
-        return buf;
+        return files().toArray(new FileInfo[0]);
     }
 }
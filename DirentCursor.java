@@ -0,0 +1,158 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Iterates over the entries of a directory in place, over the buffers of its data blocks.
+ * Moving between entries allocates nothing; names are only decoded when asked for.
+ * Every data block of the directory is visited, including those reached through indirect blocks, and unused entries (inode 0) are skipped
+ */
+public class DirentCursor
+{
+    private final Volume vol;
+    private final BlockMap blockMap;
+    private final int blockSize;
+    private final long blocks;
+    private long logical = -1;
+    private ByteBuffer block;
+    private int offset;
+    private int next;
+
+    private static final int HEADER_LEN = 8;
+
+    /**
+     * Creates a new cursor positioned before the first entry of a directory
+     * @param vol volume the directory belongs to
+     * @param inode inode of the directory
+     */
+    public DirentCursor(Volume vol, Inode inode)
+    {
+        this.vol = vol;
+        this.blockMap = new BlockMap(vol, inode);
+        this.blockSize = vol.getBlockSize();
+        this.blocks = (inode.getSize() + blockSize - 1) / blockSize;
+        this.next = blockSize;
+    }
+
+    /**
+     * Moves to the next used entry of the directory, reading its next data block if needed
+     * @return true if there is such an entry, false once all entries have been visited
+     */
+    public boolean next()
+    {
+        while (true)
+        {
+            if (next >= blockSize)
+            {
+                if (++logical >= blocks)
+                {
+                    return false;
+                }
+                int physical = blockMap.resolve(logical);
+                if (physical == 0)
+                {
+                    continue; //a hole holds no entries
+                }
+                block = vol.getBlockBuffer(physical);
+                next = 0;
+            }
+            offset = next;
+            int recLen = block.getShort(offset + 4) & 0xffff;
+            if (recLen < HEADER_LEN || offset + recLen > blockSize)
+            {
+                next = blockSize; //corrupt record length, give up on the rest of this block
+                continue;
+            }
+            next = offset + recLen;
+            if (block.getInt(offset) != 0)
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the inode number of the current entry
+     * @return the inode number
+     */
+    public int inode()
+    {
+        return block.getInt(offset);
+    }
+
+    /**
+     * Returns the length, in bytes, of the current entry's record, including any padding after it
+     * @return the record length
+     */
+    public int recordLength()
+    {
+        return block.getShort(offset + 4) & 0xffff;
+    }
+
+    /**
+     * Returns the length, in bytes, of the current entry's name
+     * @return the name length
+     */
+    public int nameLength()
+    {
+        return block.get(offset + 6) & 0xff;
+    }
+
+    /**
+     * Returns the file type of the current entry, as in <code>FileInfo.getFileType()</code>
+     * @return the file type
+     */
+    public int fileType()
+    {
+        return block.get(offset + 7) & 0xff;
+    }
+
+    /**
+     * Returns whether the current entry's name is exactly the given bytes, comparing in place
+     * @param name name to compare with
+     * @return true if the names match
+     */
+    public boolean nameEquals(byte[] name)
+    {
+        if (name.length != nameLength())
+        {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++)
+        {
+            if (block.get(offset + HEADER_LEN + i) != name[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the current entry's name as raw bytes
+     * @return the name bytes
+     */
+    public byte[] nameBytes()
+    {
+        byte[] name = new byte[nameLength()];
+        block.get(offset + HEADER_LEN, name);
+        return name;
+    }
+
+    /**
+     * Decodes the current entry's name as UTF-8
+     * @return the name
+     */
+    public String name()
+    {
+        return new String(nameBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a <code>FileInfo</code> holding the current entry. Its name is decoded when first asked for
+     * @return the entry
+     */
+    public FileInfo toFileInfo()
+    {
+        return new FileInfo(inode(), recordLength(), nameLength(), fileType(), nameBytes());
+    }
+}
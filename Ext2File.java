@@ -1,23 +1,27 @@
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 /**
- * Represents a file within an Ext2 file system volume
+ * Represents a file within an Ext2 file system volume. Data is read on demand, so opening a file costs the same whatever its size.
+ * Sequential reads are detected and the blocks that follow them prefetched in the background, with a window bounded by <code>Volume.setReadAhead</code>.
+ * An instance keeps a position and its run list between reads, so threads should share the <code>Volume</code> and open their own <code>Ext2File</code>
  */
 public class Ext2File
 {
-    private byte[] fileBytes;
     private Volume vol;
-    private int position;
+    private long position;
     private FileInfo info;
     private Inode inode;
+    private ExtentMap extents;
+    private long nextSequential;    //position just after the last read, where a sequential read would start
+    private int window;             //read-ahead window in blocks, 0 until sequential access is seen
+    private long prefetchedTo;      //logical block read-ahead has been requested up to
 
     /**
-     * Reads in data from a given file in the given the volume
+     * Opens a given file in the given the volume. Only the file's inode is read; its run list is built on the first read, and data blocks are read as they are requested
      * @param vol Ext2 file system volume to source the file data from
      * @param info <code>FIleInfo</code> object sourced from the Directory containing this file
      */
@@ -26,101 +30,177 @@ public class Ext2File
         this.vol = vol;
         this.info = info;
         inode = vol.getInode(info.getInodeNum());
-        int[] dirPointers = inode.getDataPointers();
-        fileBytes = new byte[(inode.getSize() / vol.getBlockSize() + 1) * vol.getBlockSize()];
-        if (inode.getSize() < 12 * vol.getBlockSize())
-        {
-            for (int i = 0; i < 12 && i < inode.getSize() / vol.getBlockSize() + 1; i++)
-            {
-                if (dirPointers[i] != 0)
-                {
-                    getData(0, fileBytes, dirPointers[i], i);
-                }
-            }
-        }
-        if (inode.getIndirPointer() != 0)
-        {
-            getData(1, fileBytes, inode.getIndirPointer(), inode.getDataPointers().length);
-        }
-        if (inode.getIndir2Pointer() != 0) {
-            getData(2, fileBytes, inode.getIndir2Pointer(), inode.getDataPointers().length + (vol.getBlockSize() / 4));
-        }
-        if (inode.getIndir3Pointer() != 0)
+    }
+
+    /**
+     * Reads at most <code>length</code> bytes starting at byte offset <code>startByte</code> from start of file. Byte 0 is the first byte in the file.
+     * <code>startByte</code> must be such that, 0 ≤ <code>startByte</code> ≤ <code>file.size</code> or an exception is raised.
+     * If there are fewer than <code>length</code> bytes remaining these will be read and a smaller number of bytes than requested will be returned.
+     * Only the blocks covering the requested range are read, with one lookup in the run list and one request per run, and holes in the file read as zeroes
+     * @param startByte first byte to read
+     * @param length number of bytes to read
+     * @return array of bytes read
+     * @throws IndexOutOfBoundsException if <code>startByte</code> lies outside the file
+     */
+    public byte[] read(long startByte, int length)
+    {
+        if (startByte < 0 || startByte > inode.getSize())
         {
-            getData(3, fileBytes, inode.getIndir3Pointer(), inode.getDataPointers().length + (vol.getBlockSize() / 4) + ((vol.getBlockSize() / 4) * 2));
+            throw new IndexOutOfBoundsException("Start byte " + startByte + " outside file of size " + inode.getSize());
         }
-
+        byte[] data = new byte[(int)Math.max(0, Math.min(length, inode.getSize() - startByte))];
+        read(startByte, data, 0, data.length);
+        return data;
     }
 
     /**
-     * Recursively reads data blocks belonging to this file
-     * @param level maximum number of levels of indirection
-     * @param data byte array to hold read data
-     * @param pointer pointer to first block
-     * @param blockOffset offset to store data in <code>data</code> array
+     * Reads at most <code>length</code> bytes starting at byte offset <code>startByte</code> from start of file into an existing array, so that a caller streaming
+     * through a file can reuse one buffer. Holes in the file are written as zeroes
+     * @param startByte first byte to read, such that 0 ≤ <code>startByte</code> ≤ <code>file.size</code>
+     * @param dst array to read into
+     * @param dstOffset index in <code>dst</code> of the first byte read
+     * @param length maximum number of bytes to read
+     * @return the number of bytes read, fewer than <code>length</code> only at the end of the file
+     * @throws IndexOutOfBoundsException if <code>startByte</code> lies outside the file
      */
-    private void getData(int level, byte[] data, int pointer, int blockOffset)
+    public int read(long startByte, byte[] dst, int dstOffset, int length)
     {
-        byte[] block = vol.getBlock(pointer);
-        ByteBuffer buf = initByteBuffer(block);
-        if (level == 0)
+        if (startByte < 0 || startByte > inode.getSize())
         {
-            buf.get(data, vol.getBlockSize() * blockOffset, vol.getBlockSize());
+            throw new IndexOutOfBoundsException("Start byte " + startByte + " outside file of size " + inode.getSize());
         }
-        else
+        long start = ReadMetrics.start();
+        int count = (int)Math.max(0, Math.min(length, inode.getSize() - startByte));
+        long blockSize = vol.getBlockSize();
+        ExtentMap runs = getExtents();
+        int run = runs.nextRun(startByte / blockSize);
+        int done = 0;
+        while (done < count)
         {
-            ArrayList<Integer> pointers = new ArrayList<>();
-            for (int i = 0; i < vol.getBlockSize(); i += 4)
+            long pos = startByte + done;
+            long logical = pos / blockSize;
+            int n;
+            if (run < runs.getRunCount() && runs.getLogicalStart(run) <= logical)
             {
-                pointers.add(buf.getInt(i));
+                long offset = logical - runs.getLogicalStart(run);
+                n = (int)Math.min((runs.getLength(run) - offset) * blockSize - pos % blockSize, count - done);
+                vol.readBlocks((int)(runs.getPhysicalStart(run) + offset), (int)(pos % blockSize), dst, dstOffset + done, n);
+                run++;
             }
-            for (int i = 0; i < pointers.size(); i++)
+            else
             {
-                if (pointers.get(i) != 0)
-                {
-                    getData(level - 1, data, pointers.get(i), inode.getDataPointers().length + (i * (int)Math.pow(256, level - 1)));
-                }
+                long holeEnd = (run < runs.getRunCount() ? runs.getLogicalStart(run) * blockSize : Long.MAX_VALUE);
+                n = (int)Math.min(holeEnd - pos, count - done);
+                Arrays.fill(dst, dstOffset + done, dstOffset + done + n, (byte)0); //holes read as zeroes
             }
+            done += n;
         }
+        readAhead(startByte, count);
+        ReadMetrics.record(ReadMetrics.Op.FILE_READ, start);
+        return count;
     }
 
     /**
-     * Creates and initialises a new <code>ByteBuffer</code> wrapping the given data, in little endian format
-     * @param data data to be wrapped
-     * @return buffer wrapping <code>data</code>
+     * Adapts the read-ahead window to the access pattern, and after a sequential read asks the volume to prefetch the blocks of the window that follow it.
+     * The window doubles on each sequential read, up to the volume's maximum, and halves on each random read
+     * @param start position the read started at
+     * @param length number of bytes read
      */
-    private ByteBuffer initByteBuffer(byte[] data)
+    private void readAhead(long start, int length)
     {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        buf.put(data);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        buf.flip();
-        return buf;
+        int max = vol.getReadAheadMax();
+        if (max == 0 || length == 0)
+        {
+            return;
+        }
+        long end = start + length;
+        boolean sequential = (start == nextSequential);
+        nextSequential = end;
+        if (!sequential)
+        {
+            window /= 2;
+            prefetchedTo = 0;
+            return;
+        }
+        window = (window == 0 ? vol.getReadAheadMin() : Math.min(max, window * 2));
+        long blockSize = vol.getBlockSize();
+        long next = (end + blockSize - 1) / blockSize;
+        long to = Math.min(next + window, (inode.getSize() + blockSize - 1) / blockSize);
+        long from = Math.max(next, prefetchedTo);
+        ExtentMap runs = getExtents();
+        for (int run = runs.nextRun(from); run < runs.getRunCount() && runs.getLogicalStart(run) < to; run++)
+        {
+            long first = Math.max(runs.getLogicalStart(run), from);
+            long last = Math.min(runs.getLogicalStart(run) + runs.getLength(run), to);
+            vol.prefetch((int)(runs.getPhysicalStart(run) + first - runs.getLogicalStart(run)), (int)(last - first));
+        }
+        prefetchedTo = Math.max(prefetchedTo, to);
     }
 
     /**
-     * Reads at most <code>length</code> bytes starting at byte offset <code>startByte</code> from start of file. Byte 0 is the first byte in the file.
-     * <code>startByte</code> must be such that, 0 ≤ <code>startByte</code> < <code>file.size</code> or an exception should be raised.
-     * If there are fewer than <code>length</code> bytes remaining these will be read and a smaller number of bytes than requested will be returned.
-     * @param startByte first byte to read
-     * @param length number of bytes to read
-     * @return array of bytes read
+     * Returns this file's current read-ahead window, which grows while it is read sequentially and shrinks on random reads
+     * @return the window, in blocks
+     */
+    public int getReadAheadWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Returns the run list of this file, mapping its logical blocks onto contiguous ranges of physical blocks. The map is built on first use
+     * @return the run list
+     */
+    public ExtentMap getExtents()
+    {
+        if (extents == null)
+        {
+            extents = ExtentMap.build(vol, inode);
+        }
+        return extents;
+    }
+
+    /**
+     * Copies this file to a file on the host, transferring each run of its data straight from the image's channel.
+     * Holes are skipped over rather than written, so they stay holes in the host file where its file system supports them
+     * @param target path of the host file to create or overwrite
+     * @return the number of bytes transferred, which excludes holes
+     * @throws IOException if the image cannot be read or the host file written
      */
-    public byte[] read(int startByte, int length)
+    public long copyTo(Path target) throws IOException
     {
-        return Arrays.copyOfRange(fileBytes, startByte, startByte + length);
+        ExtentMap runs = getExtents();
+        long blockSize = vol.getBlockSize();
+        long size = inode.getSize();
+        long copied = 0;
+        try (RandomAccessFile out = new RandomAccessFile(target.toFile(), "rw"))
+        {
+            out.setLength(0);
+            FileChannel ch = out.getChannel();
+            for (int i = 0; i < runs.getRunCount(); i++)
+            {
+                long start = runs.getLogicalStart(i) * blockSize;
+                long length = Math.min((long)runs.getLength(i) * blockSize, size - start);
+                ch.position(start);
+                copied += vol.transferTo(runs.getPhysicalStart(i) * blockSize, length, ch);
+            }
+            out.setLength(size); //extends over any trailing hole without writing it
+        }
+        return copied;
     }
 
     /**
-     * Reads at most <code>length</code> bytes starting at current position in the file.
-     * If the current position is set beyond the end of the file, and exception should be raised.
+     * Reads at most <code>length</code> bytes starting at current position in the file, then advances the position past them.
+     * If the current position is set beyond the end of the file, and exception is raised.
      * If there are fewer than <code>length</code> bytes remaining these will be read and a smaller number of bytes than requested will be returned.
      * @param length number of bytes to read
      * @return array of byte read
+     * @throws IndexOutOfBoundsException if the position lies beyond the end of the file
      */
     public byte[] read(int length)
     {
-        return Arrays.copyOfRange(fileBytes, position, length);
+        byte[] data = read(position, length);
+        position += data.length;
+        return data;
     }
 
     /**
@@ -128,16 +208,9 @@ public class Ext2File
      * Setting position to 0L will move to the start of the file. Note, it is legal to seek beyond the end of the file; if writing were supported, this is how holes are created.
      * @param position byte position to move to
      */
-    public void seek(int position)
+    public void seek(long position)
     {
-        if (position < inode.getSize())
-        {
-            this.position = inode.getSize();
-        }
-        else
-        {
-            this.position = position;
-        }
+        this.position = position;
     }
 
     /**
@@ -153,9 +226,9 @@ public class Ext2File
      * Returns <code>size</code> of file as specified in filesystem.
      * @return
      */
-    public int size()
+    public long size()
     {
         return inode.getSize();
     }
 
-}
\ No newline at end of file
+}
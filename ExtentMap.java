@@ -0,0 +1,201 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact run list describing where a file's data lies on its volume.
+ * Each run maps a range of logical blocks of the file onto the same number of physically contiguous blocks, and holes are simply absent from the list
+ */
+public class ExtentMap
+{
+    private long[] logicalStarts = new long[4];
+    private int[] physicalStarts = new int[4];
+    private int[] lengths = new int[4];
+    private int runs;
+    private int pointersPerBlock;
+
+    private static final int DIRECT_POINTERS = 12;
+
+    private ExtentMap(int pointersPerBlock)
+    {
+        this.pointersPerBlock = pointersPerBlock;
+    }
+
+    /**
+     * Builds the run list of a file by walking its block pointer tree. Indirect blocks are read, but no data blocks
+     * @param vol volume the file belongs to
+     * @param inode inode of the file
+     * @return the run list
+     */
+    public static ExtentMap build(Volume vol, Inode inode)
+    {
+        int blockSize = vol.getBlockSize();
+        long blocks = (inode.getSize() + blockSize - 1) / blockSize;
+        ExtentMap map = new ExtentMap(blockSize / 4);
+        for (int i = 0; i < DIRECT_POINTERS && i < blocks; i++)
+        {
+            map.add(i, inode.getDataPointer(i));
+        }
+        int[] roots = {inode.getIndirPointer(), inode.getIndir2Pointer(), inode.getIndir3Pointer()};
+        long logical = DIRECT_POINTERS;
+        long span = map.pointersPerBlock;
+        for (int level = 1; level <= roots.length && logical < blocks; level++)
+        {
+            map.walk(vol, level, roots[level - 1], logical, blocks);
+            logical += span;
+            span *= map.pointersPerBlock;
+        }
+        return map;
+    }
+
+    /**
+     * Recursively adds the data blocks below an indirect block
+     * @param vol volume to read indirect blocks from
+     * @param level levels of indirection below and including <code>block</code>
+     * @param block the indirect block, 0 if this whole branch is a hole
+     * @param logical logical block number of the first data block below <code>block</code>
+     * @param blocks number of logical blocks in the file, beyond which pointers are ignored
+     */
+    private void walk(Volume vol, int level, int block, long logical, long blocks)
+    {
+        if (block == 0)
+        {
+            return;
+        }
+        ByteBuffer buf = vol.getBlockBuffer(block);
+        long span = 1;
+        for (int i = 1; i < level; i++)
+        {
+            span *= pointersPerBlock;
+        }
+        for (int i = 0; i < pointersPerBlock && logical + i * span < blocks; i++)
+        {
+            int pointer = buf.getInt(i * 4);
+            if (level == 1)
+            {
+                add(logical + i, pointer);
+            }
+            else
+            {
+                walk(vol, level - 1, pointer, logical + i * span, blocks);
+            }
+        }
+    }
+
+    /**
+     * Appends one block to the run list, extending the last run if the block continues it both logically and physically
+     * @param logical logical block number within the file
+     * @param physical physical block number, 0 for a hole
+     */
+    private void add(long logical, int physical)
+    {
+        if (physical == 0)
+        {
+            return;
+        }
+        int last = runs - 1;
+        if (last >= 0 && logicalStarts[last] + lengths[last] == logical && physicalStarts[last] + lengths[last] == physical) //int arithmetic wraps the same way for unsigned block numbers
+        {
+            lengths[last]++;
+            return;
+        }
+        if (runs == lengths.length)
+        {
+            logicalStarts = Arrays.copyOf(logicalStarts, runs * 2);
+            physicalStarts = Arrays.copyOf(physicalStarts, runs * 2);
+            lengths = Arrays.copyOf(lengths, runs * 2);
+        }
+        logicalStarts[runs] = logical;
+        physicalStarts[runs] = physical;
+        lengths[runs] = 1;
+        runs++;
+    }
+
+    /**
+     * Returns the index of the run containing a logical block
+     * @param logical logical block number within the file
+     * @return the run index, or -1 if the block is a hole
+     */
+    public int findRun(long logical)
+    {
+        int run = nextRun(logical);
+        return (run < runs && logicalStarts[run] <= logical ? run : -1);
+    }
+
+    /**
+     * Returns the index of the first run containing or following a logical block, so that a reader can walk on through the following runs
+     * and the holes between them without another lookup
+     * @param logical logical block number within the file
+     * @return the run index, which is the run count if no run ends past the block
+     */
+    public int nextRun(long logical)
+    {
+        int low = 0;
+        int high = runs;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (logicalStarts[mid] + lengths[mid] <= logical)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the number of runs in this map
+     * @return the number of runs
+     */
+    public int getRunCount()
+    {
+        return runs;
+    }
+
+    /**
+     * Returns the first logical block of a run
+     * @param run index of the run
+     * @return the logical block number
+     */
+    public long getLogicalStart(int run)
+    {
+        return logicalStarts[run];
+    }
+
+    /**
+     * Returns the first physical block of a run
+     * @param run index of the run
+     * @return the physical block number, as an unsigned value
+     */
+    public long getPhysicalStart(int run)
+    {
+        return Integer.toUnsignedLong(physicalStarts[run]);
+    }
+
+    /**
+     * Returns the number of blocks in a run
+     * @param run index of the run
+     * @return the length in blocks
+     */
+    public int getLength(int run)
+    {
+        return lengths[run];
+    }
+
+    /**
+     * Returns a string representation of this <code>ExtentMap</code>, listing each run as logical:physical+length
+     * @return the string
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(super.toString()).append(" [");
+        for (int i = 0; i < runs; i++)
+        {
+            sb.append(i == 0 ? "" : ", ").append(logicalStarts[i]).append(':').append(physicalStarts[i]).append('+').append(lengths[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -1,10 +1,15 @@
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.text.DateFormat;
+import java.text.FieldPosition;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class FSReader
 {
@@ -13,10 +18,17 @@ public class FSReader
         Helper h = new Helper();
         String input = "";
         Scanner sc = new Scanner(System.in);
-        Volume vol = new Volume("./res/ext2fs");
+        String image = "./res/ext2fs";
+        Volume vol = new Volume(image);
+        ReadMetrics.registerMBean();
         Directory prevDir = getDir(vol, vol.getLabel(), null);
         Directory workingDir = prevDir;
         Ext2File file;
+        StringBuffer listing = new StringBuffer();
+        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd hh:mm ");
+        Date date = new Date();
+        ImageServer server = null;
+        NameIndex nameIndex = null;
         while (!input.equals("exit"))
         {
             System.out.print("~" + workingDir.getPath() + "\n$ ");
@@ -35,7 +47,7 @@ public class FSReader
                     break;
                 case "cat":
                     arg = sc.nextLine();
-                    int start = 0;
+                    long start = 0;
                     int len = -1;
                     String fileName;
                     if (Pattern.matches(" [^ ].*", arg))
@@ -54,7 +66,7 @@ public class FSReader
                         {
                             if (argList.size() == 3)
                             {
-                                start = Integer.parseInt(argList.get(1));
+                                start = Long.parseLong(argList.get(1));
                                 len = Integer.parseInt(argList.get(2));
                             }
                             else if (argList.size() == 2)
@@ -66,34 +78,232 @@ public class FSReader
                         {
                             System.out.println(e.getMessage());
                         }
-                        boolean fileExists = false;
-                        for (FileInfo fi : workingDir.getFileInfo())
+                        FileInfo fi = workingDir.lookup(fileName);
+                        if (fi != null)
                         {
-                            if (fi.getName().equals(fileName))
+                            file = new Ext2File(vol, fi);
+                            try
                             {
-                                fileExists = true;
-                                file = new Ext2File(vol, fi);
-                                System.out.println(new String(file.read(start, (len == -1 ? file.size() : len)), StandardCharsets.UTF_8).trim());
-                                System.out.println();
-                                break;
+                                System.out.println(new String(file.read(start, (len == -1 ? (int)Math.min(file.size(), Integer.MAX_VALUE) : len)), StandardCharsets.UTF_8).trim());
                             }
+                            catch (IndexOutOfBoundsException e)
+                            {
+                                System.out.println("cat: " + e.getMessage());
+                            }
+                            System.out.println();
                         }
-                        if (!fileExists)
+                        else
                         {
                             System.out.println("cat: " + fileName + ": No such file\n");
                         }
                     }
                     break;
+                case "cp":
+                    arg = sc.nextLine();
+                    if (Pattern.matches(" [^ ].*", arg))
+                    {
+                        String[] paths = arg.trim().replace("\"", "").split(" +"); //remove quotes and split on runs of spaces
+                        if (paths.length != 2)
+                        {
+                            System.out.println("cp: usage: cp <image-path> <host-path>\n");
+                            break;
+                        }
+                        FileInfo fi = findFile(vol, workingDir, paths[0]);
+                        if (fi == null)
+                        {
+                            System.out.println("cp: " + paths[0] + ": No such file\n");
+                            break;
+                        }
+                        try
+                        {
+                            long copied = new Ext2File(vol, fi).copyTo(Paths.get(paths[1]));
+                            System.out.println("cp: " + copied + " bytes copied to " + paths[1] + "\n");
+                        }
+                        catch (IOException e)
+                        {
+                            System.out.println("cp: " + paths[1] + ": " + e.getMessage() + "\n");
+                        }
+                    }
+                    break;
+                case "export":
+                    arg = sc.nextLine();
+                    if (Pattern.matches(" [^ ].*", arg))
+                    {
+                        String[] args2 = arg.trim().replace("\"", "").split(" +");
+                        if (args2.length < 2 || args2.length > 3)
+                        {
+                            System.out.println("export: usage: export <dir> <host-dir> [threads]\n");
+                            break;
+                        }
+                        Directory exportDir;
+                        try
+                        {
+                            exportDir = new Directory(vol, args2[0], workingDir.getPath());
+                        }
+                        catch (NoSuchDirectoryException | RootReachedException e)
+                        {
+                            System.out.println(e.getMessage() + "\n");
+                            break;
+                        }
+                        int threads = Runtime.getRuntime().availableProcessors();
+                        try
+                        {
+                            if (args2.length == 3)
+                            {
+                                threads = Integer.parseInt(args2[2]);
+                            }
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            System.out.println(e.getMessage());
+                            break;
+                        }
+                        TreeExporter exporter = new TreeExporter(vol, threads);
+                        exporter.export(exportDir, Paths.get(args2[1]), System.out);
+                        for (String error : exporter.getErrors())
+                        {
+                            System.out.println("export: " + error);
+                        }
+                        System.out.println();
+                    }
+                    break;
                 case "ls":
-                    for (FileInfo f : workingDir.getFileInfo())
+                    printListing(vol, workingDir, listing, sdf, date);
+                    break;
+                case "serve":
+                    arg = sc.nextLine().trim();
+                    if (server != null)
+                    {
+                        System.out.println("serve: already serving on http://localhost:" + server.getPort() + "/\n");
+                        break;
+                    }
+                    try
+                    {
+                        server = new ImageServer(vol, arg.isEmpty() ? 0 : Integer.parseInt(arg));
+                        server.start();
+                        System.out.println("serve: serving /ls/<path> and /cat/<path> on http://localhost:" + server.getPort() + "/\n");
+                    }
+                    catch (NumberFormatException | IOException e)
+                    {
+                        System.out.println("serve: " + e.getMessage() + "\n");
+                    }
+                    break;
+                case "df":
+                    arg = sc.nextLine().trim();
+                    if (!arg.isEmpty() && !arg.equals("-g"))
+                    {
+                        System.out.println("df: usage: df [-g]\n");
+                        break;
+                    }
+                    printUsage(vol, new SpaceUsage(vol), arg.equals("-g"));
+                    break;
+                case "find":
+                    arg = sc.nextLine().trim();
+                    String[] query = arg.split(" +", 2);
+                    boolean flagged = (query[0].equals("-prefix") || query[0].equals("-regex"));
+                    if (arg.isEmpty() || (flagged && query.length < 2))
                     {
-                        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd hh:mm ");
-                        Inode i = vol.getInode(f.getInodeNum());
-                        System.out.println(i.getFileMode() + " " + String.format("%2d ", i.getHardLinks()) + String.format("%6d ", i.getUID()) + String.format("%6d ", i.getGID()) + String.format("%8d ", i.getSize()) + " " + sdf.format(i.getLastModTime()) + f.getName());
+                        System.out.println("find: usage: find [-prefix|-regex] <pattern>\n");
+                        break;
+                    }
+                    if (nameIndex == null)
+                    {
+                        nameIndex = NameIndex.open(vol, image);
+                        if (nameIndex.wasBuilt())
+                        {
+                            System.out.println("find: indexed " + nameIndex.size() + " entries");
+                        }
+                    }
+                    int[] found;
+                    try
+                    {
+                        found = (query[0].equals("-prefix") ? nameIndex.findPrefix(query[1]) : query[0].equals("-regex") ? nameIndex.findRegex(query[1]) : nameIndex.findGlob(arg));
+                    }
+                    catch (PatternSyntaxException e)
+                    {
+                        System.out.println("find: " + e.getDescription() + "\n");
+                        break;
+                    }
+                    for (int entry : found)
+                    {
+                        System.out.println(nameIndex.getPath(entry));
                     }
                     System.out.println();
                     break;
+                case "grep":
+                    arg = sc.nextLine().trim();
+                    boolean recursive = arg.startsWith("-r ");
+                    if (recursive)
+                    {
+                        arg = arg.substring(3).trim();
+                    }
+                    int patternEnd = (arg.startsWith("\"") ? arg.indexOf('"', 1) : arg.indexOf(' ')); //a quoted pattern may hold spaces
+                    if (arg.isEmpty() || patternEnd <= 0 || arg.substring(patternEnd + 1).trim().isEmpty())
+                    {
+                        System.out.println("grep: usage: grep [-r] <pattern> <path>\n");
+                        break;
+                    }
+                    String grepPattern = arg.substring(arg.startsWith("\"") ? 1 : 0, patternEnd);
+                    String grepPath = arg.substring(patternEnd + 1).trim().replace("\"", "");
+                    if (grepPattern.isEmpty())
+                    {
+                        System.out.println("grep: empty pattern\n");
+                        break;
+                    }
+                    ContentSearch search = new ContentSearch(vol, grepPattern.getBytes(StandardCharsets.UTF_8), Runtime.getRuntime().availableProcessors());
+                    FileInfo grepFile = findFile(vol, workingDir, grepPath);
+                    if (grepFile != null)
+                    {
+                        search.search(grepFile, grepPath, System.out);
+                    }
+                    else
+                    {
+                        Directory grepDir;
+                        try
+                        {
+                            grepDir = new Directory(vol, grepPath.matches("/+") ? vol.getLabel() : grepPath, workingDir.getPath()); //the root, as findFile takes a leading slash
+                        }
+                        catch (NoSuchDirectoryException | RootReachedException e)
+                        {
+                            System.out.println("grep: " + grepPath + ": No such file or directory\n");
+                            break;
+                        }
+                        if (!recursive)
+                        {
+                            System.out.println("grep: " + grepPath + ": Is a directory\n");
+                            break;
+                        }
+                        search.search(grepDir, grepPath.replaceAll("/+$", ""), true, System.out);
+                    }
+                    for (String error : search.getErrors())
+                    {
+                        System.out.println("grep: " + error);
+                    }
+                    System.out.println();
+                    break;
+                case "stats":
+                    arg = sc.nextLine().trim();
+                    ReadMetrics metrics = ReadMetrics.getInstance();
+                    if (arg.equals("on") || arg.equals("off"))
+                    {
+                        metrics.setEnabled(arg.equals("on"));
+                    }
+                    else if (arg.equals("reset"))
+                    {
+                        metrics.reset();
+                    }
+                    else if (!arg.isEmpty())
+                    {
+                        System.out.println("stats: usage: stats [on|off|reset]\n");
+                        break;
+                    }
+                    printStats(vol, metrics);
+                    break;
                 case "exit":
+                    if (server != null)
+                    {
+                        server.stop();
+                    }
                     break;
                 default:
                     System.out.println("Syntax / command error.\n");
@@ -101,6 +311,151 @@ public class FSReader
         }
     }
 
+    /**
+     * Prints the contents of a directory in Unix <code>ls -l</code> like format. All inodes are fetched in one batch,
+     * and each line is built into the reused <code>out</code> buffer rather than through <code>String.format</code>
+     * @param vol volume in which directory resides
+     * @param dir directory to list
+     * @param out buffer to build the listing in
+     * @param sdf formatter for modification times
+     * @param date date reused for formatting each modification time
+     */
+    private static void printListing(Volume vol, Directory dir, StringBuffer out, SimpleDateFormat sdf, Date date)
+    {
+        FileInfo[] files = dir.getFileInfo();
+        int[] inodeNums = new int[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            inodeNums[i] = files[i].getInodeNum();
+        }
+        Inode[] inodes = vol.getInodes(inodeNums);
+        FieldPosition field = new FieldPosition(0);
+        out.setLength(0);
+        for (int i = 0; i < files.length; i++)
+        {
+            Inode inode = inodes[i];
+            out.append(inode.getFileMode()).append(' ');
+            pad(out, inode.getHardLinks(), 2);
+            pad(out, inode.getUID(), 6);
+            pad(out, inode.getGID(), 6);
+            pad(out, inode.getSize(), 8);
+            out.append(' ');
+            date.setTime(inode.getLastModEpoch() * 1000);
+            sdf.format(date, out, field);
+            out.append(files[i].getName()).append('\n');
+        }
+        out.append('\n');
+        System.out.print(out);
+    }
+
+    /**
+     * Prints the space used in a volume in the manner of <code>df</code>, with sizes in 1K blocks, then any counts that disagree with the group descriptors or superblock
+     * @param vol volume counted
+     * @param usage the counts
+     * @param perGroup whether to print a line for each group as well
+     */
+    private static void printUsage(Volume vol, SpaceUsage usage, boolean perGroup)
+    {
+        long k = vol.getBlockSize() / 1024;
+        if (perGroup)
+        {
+            System.out.println("Group   Blocks     Used     Free   Inodes     Used     Free");
+            for (int g = 0; g < usage.getGroupCount(); g++)
+            {
+                int inodes = vol.getSuperBlock().getInodesPerGroup();
+                System.out.println(String.format("%5d %8d %8d %8d %8d %8d %8d", g, usage.getBlocksInGroup(g), usage.getUsedBlocks(g), usage.getBlocksInGroup(g) - usage.getUsedBlocks(g),
+                        inodes, usage.getUsedInodes(g), inodes - usage.getUsedInodes(g)));
+            }
+        }
+        System.out.println(String.format("%-16s %10s %10s %10s %4s %9s %9s %9s %5s", "Filesystem", "1K-blocks", "Used", "Available", "Use%", "Inodes", "IUsed", "IFree", "IUse%"));
+        System.out.println(String.format("%-16s %10d %10d %10d %3d%% %9d %9d %9d %4d%%", vol.getLabel().trim(), usage.getTotalBlocks() * k, usage.getUsedBlocks() * k, usage.getAvailableBlocks() * k,
+                percent(usage.getUsedBlocks(), usage.getUsedBlocks() + usage.getAvailableBlocks()), usage.getTotalInodes(), usage.getUsedInodes(), usage.getFreeInodes(),
+                percent(usage.getUsedInodes(), usage.getTotalInodes())));
+        for (String mismatch : usage.getMismatches())
+        {
+            System.out.println("df: mismatch: " + mismatch);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Returns a share as a percentage rounded up, as <code>df</code> does
+     * @param part the share
+     * @param whole the whole
+     * @return the percentage, 0 if <code>whole</code> is 0
+     */
+    private static long percent(long part, long whole)
+    {
+        return whole == 0 ? 0 : (part * 100 + whole - 1) / whole;
+    }
+
+    /**
+     * Prints the read path metrics, followed by the state of the volume's caches
+     * @param vol volume whose caches to print
+     * @param metrics the metrics
+     */
+    private static void printStats(Volume vol, ReadMetrics metrics)
+    {
+        System.out.println("metrics " + (metrics.isEnabled() ? "on" : "off (stats on to record)"));
+        System.out.println("blocks read: " + metrics.getBlocksRead() + ", bytes read: " + metrics.getBytesRead() + ", inodes decoded: " + metrics.getInodesDecoded());
+        System.out.println("inode cache: " + metrics.getInodeCacheHits() + " hits, " + metrics.getInodeCacheMisses() + " misses; block cache: "
+                + metrics.getBlockCacheHits() + " hits, " + metrics.getBlockCacheMisses() + " misses");
+        for (String line : metrics.getLatencies())
+        {
+            System.out.println(line);
+        }
+        System.out.println(vol.getBlockCache());
+        System.out.println(vol.getReadAheadCache());
+        System.out.println(vol.getInodeCache());
+        System.out.println(vol.getDentryCache());
+        System.out.println();
+    }
+
+    /**
+     * Appends a number right aligned in a field of the given width, followed by a space
+     * @param out buffer to append to
+     * @param value number to append
+     * @param width minimum number of characters for the number
+     */
+    private static void pad(StringBuffer out, long value, int width)
+    {
+        int start = out.length();
+        out.append(value);
+        while (out.length() - start < width)
+        {
+            out.insert(start, ' ');
+        }
+        out.append(' ');
+    }
+
+    /**
+     * Finds a regular file in a Volume from a path relative to <code>workingDir</code>, or an absolute path starting with the volume label
+     * @param vol volume in which file resides
+     * @param workingDir directory relative paths start from
+     * @param path path of the file to find
+     * @return the file's entry in its directory, or <code>null</code> if there is no such file
+     */
+    private static FileInfo findFile(Volume vol, Directory workingDir, String path)
+    {
+        Directory dir = workingDir;
+        String name = path;
+        int slash = path.lastIndexOf('/');
+        if (slash >= 0)
+        {
+            name = path.substring(slash + 1);
+            try
+            {
+                dir = new Directory(vol, path.substring(0, slash).matches("/*") ? vol.getLabel() : path.substring(0, slash), workingDir.getPath());
+            }
+            catch (NoSuchDirectoryException | RootReachedException e)
+            {
+                return null;
+            }
+        }
+        FileInfo fi = dir.lookup(name);
+        return (fi != null && fi.getFileType() == FileInfo.TYPE_FILE ? fi : null);
+    }
+
     /**
      * Gets a Directory object in a Volume from a given path. If the requested directory cannot be found / accessed, <code>prevDir</code> is returned, so no change is observed
      * @param vol volume in which directory resides
@@ -1,3 +1,5 @@
+import java.nio.charset.StandardCharsets;
+
 /**
  * Represents the information about a file that is stored in an ext2 file system directory file
  */
@@ -7,6 +9,12 @@ public class FileInfo {
     private int nameLen;
     private int fileType;
     private String name;
+    private byte[] nameBytes;
+
+    /** File type of a regular file */
+    public static final int TYPE_FILE = 1;
+    /** File type of a directory */
+    public static final int TYPE_DIRECTORY = 2;
 
     /**
      * Creates a new <code>FileInfo</code> instance
@@ -24,6 +32,22 @@ public class FileInfo {
         this.name = name;
     }
 
+    /**
+     * Creates a new <code>FileInfo</code> instance from a raw name, which is only decoded when first asked for
+     * @param inodeNum the inode number of the associated file
+     * @param length the length, in bytes, of the directory entry storing the data in this <code>FileInfo</code> instance
+     * @param nameLen the length, in bytes, of the name of the associated file
+     * @param fileType the file type of the associated file
+     * @param nameBytes the name of the associated file as stored in the directory
+     */
+    public FileInfo(int inodeNum, int length, int nameLen, int fileType, byte[] nameBytes) {
+        this.inodeNum = inodeNum;
+        this.length = length;
+        this.nameLen = nameLen;
+        this.fileType = fileType;
+        this.nameBytes = nameBytes;
+    }
+
     /**
      * Returns the inode number of the associated file
      * @return the inode number
@@ -61,6 +85,20 @@ public class FileInfo {
      * @return the name
      */
     public String getName() {
+        if (name == null) {
+            name = new String(nameBytes, StandardCharsets.UTF_8);
+        }
         return name;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the name of the associated file as raw bytes. The array is shared and must not be modified
+     * @return the name bytes
+     */
+    public byte[] getNameBytes() {
+        if (nameBytes == null) {
+            nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        }
+        return nameBytes;
+    }
+}
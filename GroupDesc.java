@@ -2,12 +2,21 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 /**
- * Represents an ext2 file system group descriptor block
+ * Represents an ext2 file system group descriptor block. Instances are immutable and so safe to share between threads
  */
 public class GroupDesc
 {
-    private byte[] data;
-    private int inodeTablePointer;
+    private final int blockBitmapPointer;
+    private final int inodeBitmapPointer;
+    private final int inodeTablePointer;
+    private final int freeBlocks;
+    private final int freeInodes;
+    private final int usedDirs;
+
+    /** Number of <code>int</code>s one descriptor occupies in a compact descriptor table, see {@link #writeTo(int[], int)} */
+    static final int FIELDS = 6;
+    /** Index of the inode table pointer within a descriptor's entries in a compact descriptor table */
+    static final int INODE_TABLE_FIELD = 2;
 
     /**
      * Reads in and creates a new <code>GroupDesc</code> instance
@@ -15,23 +24,72 @@ public class GroupDesc
      */
     public GroupDesc(byte[] data)
     {
-        this.data = data;
-        ByteBuffer buf = initByteBuffer(this.data);
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Reads in and creates a new <code>GroupDesc</code> instance from a buffer over the 32 byte descriptor
+     * @param record buffer positioned at the start of the descriptor
+     */
+    public GroupDesc(ByteBuffer record)
+    {
+        ByteBuffer buf = record.slice().order(ByteOrder.LITTLE_ENDIAN);
+        blockBitmapPointer = buf.getInt(0);
+        inodeBitmapPointer = buf.getInt(4);
         inodeTablePointer = buf.getInt(8);
+        freeBlocks = buf.getShort(12) & 0xffff;
+        freeInodes = buf.getShort(14) & 0xffff;
+        usedDirs = buf.getShort(16) & 0xffff;
+    }
+
+    /**
+     * Creates a new <code>GroupDesc</code> instance from a compact descriptor table
+     * @param table table previously filled by {@link #writeTo(int[], int)}
+     * @param group index of the group to read
+     */
+    GroupDesc(int[] table, int group)
+    {
+        int i = group * FIELDS;
+        blockBitmapPointer = table[i];
+        inodeBitmapPointer = table[i + 1];
+        inodeTablePointer = table[i + INODE_TABLE_FIELD];
+        freeBlocks = table[i + 3];
+        freeInodes = table[i + 4];
+        usedDirs = table[i + 5];
+    }
+
+    /**
+     * Stores this descriptor's fields into a compact descriptor table of <code>FIELDS</code> ints per group
+     * @param table table to write to
+     * @param group index of the group being written
+     */
+    void writeTo(int[] table, int group)
+    {
+        int i = group * FIELDS;
+        table[i] = blockBitmapPointer;
+        table[i + 1] = inodeBitmapPointer;
+        table[i + INODE_TABLE_FIELD] = inodeTablePointer;
+        table[i + 3] = freeBlocks;
+        table[i + 4] = freeInodes;
+        table[i + 5] = usedDirs;
+    }
+
+    /**
+     * Gets this <code>GroupDesc</code>'s block bitmap pointer
+     * @return the block bitmap pointer
+     */
+    public int getBlockBitmapPointer()
+    {
+        return blockBitmapPointer;
     }
 
     /**
-     * Creates and initialises a new <code>ByteBuffer</code> wrapping the given data, in little endian format
-     * @param data data to be wrapped
-     * @return buffer wrapping <code>data</code>
+     * Gets this <code>GroupDesc</code>'s inode bitmap pointer
+     * @return the inode bitmap pointer
      */
-    private ByteBuffer initByteBuffer(byte[] data)
+    public int getInodeBitmapPointer()
     {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        buf.put(data);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        buf.flip();
-        return buf;
+        return inodeBitmapPointer;
     }
 
     /**
@@ -42,4 +100,40 @@ public class GroupDesc
     {
         return inodeTablePointer;
     }
+
+    /**
+     * Gets the number of free blocks in this <code>GroupDesc</code>'s group
+     * @return the number of free blocks
+     */
+    public int getFreeBlocks()
+    {
+        return freeBlocks;
+    }
+
+    /**
+     * Gets the number of free inodes in this <code>GroupDesc</code>'s group
+     * @return the number of free inodes
+     */
+    public int getFreeInodes()
+    {
+        return freeInodes;
+    }
+
+    /**
+     * Gets the number of directories in this <code>GroupDesc</code>'s group
+     * @return the number of directories
+     */
+    public int getUsedDirs()
+    {
+        return usedDirs;
+    }
+
+    /**
+     * Returns a string representation of this <code>GroupDesc</code>
+     * @return the string
+     */
+    public String toString()
+    {
+        return super.toString() + " [blockBitmap: " + blockBitmapPointer + ", inodeBitmap: " + inodeBitmapPointer + ", inodeTable: " + inodeTablePointer + ", freeBlocks: " + freeBlocks + ", freeInodes: " + freeInodes + ", usedDirs: " + usedDirs + "]";
+    }
 }
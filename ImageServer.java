@@ -0,0 +1,375 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the contents of a volume read only over HTTP, on the loopback interface only.
+ * <code>GET /ls/&lt;path&gt;</code> returns a directory listing as JSON, and <code>GET /cat/&lt;path&gt;</code> returns a file's data, honouring a single byte <code>Range</code>.
+ * Paths are relative to the root of the volume. Every request is handled on its own virtual thread where the JVM supports them, and otherwise on a bounded pool,
+ * and all share the one <code>Volume</code>
+ */
+public class ImageServer
+{
+    private final Volume vol;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private static final int BACKLOG = 1024;
+    private static final int CHUNK = 256 * 1024;
+    private static final int THREADS_PER_CPU = 8;   //requests mostly wait on the image or the client, so the pool is larger than the CPU count
+
+    static
+    {
+        //the JDK server writes a response's headers and body separately; with Nagle's algorithm on, every request on a kept-alive connection
+        //then waits out the client's delayed ACK. The property is read once, when the first server is created, and an explicit setting is kept
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * Creates a new <code>ImageServer</code>, which accepts no requests until it is started
+     * @param vol volume to serve
+     * @param port loopback port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public ImageServer(Volume vol, int port) throws IOException
+    {
+        this.vol = vol;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/ls/", this::handleList);
+        server.createContext("/cat/", this::handleCat);
+    }
+
+    /**
+     * Returns an executor running each task on a new virtual thread. On JVMs without virtual threads it falls back to a fixed pool of daemon threads,
+     * sized from the CPU count, with a queue as deep as the accept backlog. Requests arriving when both are full are refused, and the server closes their connections,
+     * rather than each taking another thread
+     * @return the executor
+     */
+    private static ExecutorService newRequestExecutor()
+    {
+        try
+        {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            int threads = THREADS_PER_CPU * Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(BACKLOG), r ->
+            {
+                Thread t = new Thread(r, "image-server");
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true); //an idle server holds no threads
+            return pool;
+        }
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to a second for those in progress to finish
+     */
+    public void stop()
+    {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port this server listens on
+     * @return the port
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answers <code>GET /ls/&lt;path&gt;</code> with a JSON object holding the directory's path, relative to the root, and an array of its entries.
+     * A path naming anything other than a directory gets a 404
+     * @param exchange the request
+     * @throws IOException if the response cannot be sent
+     */
+    private void handleList(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!isGet(exchange))
+            {
+                return;
+            }
+            Directory dir;
+            try
+            {
+                dir = new Directory(vol, vol.getLabel() + "/" + getPath(exchange, "/ls/"), "");
+            }
+            catch (NotADirectoryException e)
+            {
+                sendError(exchange, 404, "Not a directory");
+                return;
+            }
+            catch (NoSuchDirectoryException | RootReachedException e)
+            {
+                sendError(exchange, 404, "No such directory");
+                return;
+            }
+            FileInfo[] files = dir.getFileInfo();
+            int[] inodeNums = new int[files.length];
+            for (int i = 0; i < files.length; i++)
+            {
+                inodeNums[i] = files[i].getInodeNum();
+            }
+            Inode[] inodes = vol.getInodes(inodeNums);
+            StringBuilder json = new StringBuilder("{\"path\":");
+            String path = dir.getPath();
+            appendString(json, path.substring(Math.min(path.length(), vol.getLabel().length() + 1))).append(",\"entries\":["); //relative to the root, like request paths
+            for (int i = 0; i < files.length; i++)
+            {
+                if (i > 0)
+                {
+                    json.append(',');
+                }
+                json.append("{\"name\":");
+                appendString(json, files[i].getName());
+                json.append(",\"inode\":").append(files[i].getInodeNum());
+                json.append(",\"type\":\"").append(files[i].getFileType() == FileInfo.TYPE_FILE ? "file" : files[i].getFileType() == FileInfo.TYPE_DIRECTORY ? "dir" : "other");
+                json.append("\",\"mode\":\"").append(inodes[i].getFileMode());
+                json.append("\",\"size\":").append(inodes[i].getSize());
+                json.append(",\"mtime\":").append(inodes[i].getLastModEpoch()).append('}');
+            }
+            json.append("]}");
+            byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        catch (RuntimeException e)
+        {
+            sendFailure(exchange, e);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers <code>GET /cat/&lt;path&gt;</code> with the file's data. A <code>Range: bytes=</code> header naming one range gets a 206 response with just that range,
+     * streamed through <code>Ext2File.read(start, length)</code> a chunk at a time so large files are never held in memory
+     * @param exchange the request
+     * @throws IOException if the response cannot be sent
+     */
+    private void handleCat(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!isGet(exchange))
+            {
+                return;
+            }
+            String path = getPath(exchange, "/cat/");
+            int slash = path.lastIndexOf('/');
+            FileInfo fi;
+            try
+            {
+                Directory dir = new Directory(vol, vol.getLabel() + (slash < 0 ? "" : "/" + path.substring(0, slash)), "");
+                fi = dir.lookup(path.substring(slash + 1));
+            }
+            catch (NoSuchDirectoryException | RootReachedException e)
+            {
+                fi = null;
+            }
+            if (fi == null || fi.getFileType() != FileInfo.TYPE_FILE)
+            {
+                sendError(exchange, 404, "No such file");
+                return;
+            }
+            Ext2File file = new Ext2File(vol, fi);
+            long size = file.size();
+            long start = 0;
+            long end = size;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0)
+            {
+                long[] bounds = parseRange(range.substring(6).trim(), size);
+                if (bounds == null)
+                {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    sendError(exchange, 416, "Range not satisfiable");
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            //an empty file goes as an empty chunked body: a length of -1 hands the connection back for reuse while the exchange is still open,
+            //and under concurrent load the JDK server then resets kept-alive connections
+            exchange.sendResponseHeaders(status, end - start);
+            OutputStream out = exchange.getResponseBody();
+            for (long pos = start; pos < end; pos += CHUNK)
+            {
+                out.write(file.read(pos, (int)Math.min(CHUNK, end - pos)));
+            }
+        }
+        catch (RuntimeException e)
+        {
+            sendFailure(exchange, e);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Parses the part of a <code>Range</code> header after <code>bytes=</code>: <code>first-last</code>, <code>first-</code> or <code>-suffixLength</code>
+     * @param spec the range
+     * @param size size of the file
+     * @return the start and end (exclusive) of the range clamped to the file, or <code>null</code> if it is malformed or lies wholly past the end
+     */
+    private static long[] parseRange(String spec, long size)
+    {
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty())
+            {
+                long suffix = Long.parseLong(last);
+                return (suffix <= 0 || size == 0 ? null : new long[] {Math.max(0, size - suffix), size});
+            }
+            long start = Long.parseLong(first);
+            long end = (last.isEmpty() ? size : Math.min(size, Long.parseLong(last) + 1));
+            return (start < 0 || start >= size || end <= start ? null : new long[] {start, end});
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that a request is a GET, answering it with 405 if not
+     * @param exchange the request
+     * @return whether the request is a GET
+     * @throws IOException if the response cannot be sent
+     */
+    private static boolean isGet(HttpExchange exchange) throws IOException
+    {
+        if (exchange.getRequestMethod().equals("GET"))
+        {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", "GET");
+        sendError(exchange, 405, "Method not allowed");
+        return false;
+    }
+
+    /**
+     * Returns the decoded request path after its context prefix, without surrounding slashes
+     * @param exchange the request
+     * @param prefix the context prefix, such as <code>/ls/</code>
+     * @return the path within the volume, empty for the root
+     */
+    private static String getPath(HttpExchange exchange, String prefix)
+    {
+        String path = exchange.getRequestURI().getPath().substring(prefix.length());
+        while (path.endsWith("/"))
+        {
+            path = path.substring(0, path.length() - 1);
+        }
+        while (path.startsWith("/"))
+        {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    /**
+     * Answers a request whose handler failed with a 500 response, unless the response headers have already gone, as when a corrupt block
+     * turns up part way through a body. Then nothing more can be sent, and closing the exchange leaves the client with a body shorter than it was promised
+     * @param exchange the request
+     * @param e the failure
+     * @throws IOException if the response cannot be sent
+     */
+    private static void sendFailure(HttpExchange exchange, RuntimeException e) throws IOException
+    {
+        if (exchange.getResponseCode() < 0)
+        {
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Sends a plain text error response
+     * @param exchange the request
+     * @param status HTTP status code
+     * @param message text of the response
+     * @throws IOException if the response cannot be sent
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException
+    {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Appends a string to a JSON document as a quoted, escaped JSON string
+     * @param json document to append to
+     * @param s string to append
+     * @return <code>json</code>
+     */
+    private static StringBuilder appendString(StringBuilder json, String s)
+    {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                json.append(String.format("\\u%04x", (int)c));
+            }
+            else
+            {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
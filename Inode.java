@@ -3,27 +3,17 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 /**
- * Represents an ext2 file system inode structure
+ * Represents an ext2 file system inode structure as a view over its raw record.
+ * Fields are decoded from the record each time they are asked for, so creating an <code>Inode</code> costs nothing beyond the record itself.
+ * Bulk scans that must allocate nothing per inode re-point one <code>Inode</code> from record to record with the package private {@link #moveTo(ByteBuffer, int)}.
+ * The instances <code>Volume</code> caches and hands out are never moved, so they always view the same record and are safe to share between threads
  */
 public class Inode
 {
+    private ByteBuffer buf;
+    private int base;
 
-    private byte[] data;
-    private String fileMode = "";
-    private int UID;
-    private int size;
-    private Date lastAccessTime;
-    private Date creationTime;
-    private Date lastModTime;
-    private Date deletedTime;
-    private int GID;
-    private short hardLinks;
-    private int[] dataPointers = new int[12];
-    private int indirPointer;
-    private int indir2Pointer;
-    private int indir3Pointer;
-    private Helper h;
-
+    private static final int IFMT = 0xf000;       // File type mask
     private static final int IFREG = 0x8000;      // Regular File
     private static final int IFDIR = 0x4000;      // Directory
     private static final int IRUSR = 0x0100;      // User read
@@ -36,170 +26,161 @@ public class Inode
     private static final int IWOTH = 0x0002;      // Others write
     private static final int IXOTH = 0x0001;      // Others execute
 
+    private static final int[] PERMISSION_BITS = {IRUSR, IWUSR, IXUSR, IRGRP, IWGRP, IXGRP, IROTH, IWOTH, IXOTH};
+    private static final String PERMISSION_CHARS = "rwxrwxrwx";
+    private static final int DIRECT_POINTERS = 12;
+    private static final int RECORD_LEN = 128;
+
     /**
-     * Reads and creates and new <code>Inode</code> instance
+     * Creates and new <code>Inode</code> instance over the given record
      * @param data data to create new instance from
      */
     public Inode(byte[] data)
     {
-        h = new Helper();
-        this.data = data;
-        ByteBuffer buf = initByteBuffer(this.data);
-        readFileMode(buf.getShort(0));
-        short UIDL = buf.getShort(2);
-        short UIDU = buf.getShort(120);
-        UID = UIDU | UIDL;
-        lastAccessTime = new Date(buf.getLong(8) * 1000);
-        creationTime = new Date(buf.getLong(12) * 1000);
-        lastModTime = new Date(buf.getLong(16) * 1000);
-        deletedTime = new Date(buf.getLong(20) * 1000);
-        short GIDL = buf.getShort(24);
-        short GIDU = buf.getShort(122);
-        GID = GIDU | GIDL;
-        GID = buf.getShort(24);
-        hardLinks = buf.getShort(26);
-        for (int i = 0; i < 12; i++)
-        {
-            dataPointers[i] = buf.getInt(40 + 4 * i);
-        }
-        indirPointer = buf.getInt(88);
-        indir2Pointer = buf.getInt(92);
-        indir3Pointer = buf.getInt(96);
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates and new <code>Inode</code> instance over a buffer holding the inode record, such as a slice of a mapped volume
+     * @param record buffer positioned at the start of the inode record
+     */
+    public Inode(ByteBuffer record)
+    {
+        this(record.slice().order(ByteOrder.LITTLE_ENDIAN), 0);
+    }
 
-        int sizeL = buf.getInt(4);
-        int sizeU = buf.getInt(108);
-        sizeU <<= 32;
-        size = sizeU | sizeL;
+    /**
+     * Creates an <code>Inode</code> over the record at <code>offset</code> in a buffer, without slicing it
+     * @param buffer little endian buffer holding the record, read with absolute gets only
+     * @param offset index in <code>buffer</code> of the start of the record
+     */
+    Inode(ByteBuffer buffer, int offset)
+    {
+        buf = buffer;
+        base = offset;
+    }
+
+    /**
+     * Points this <code>Inode</code> at another record. Nothing is copied or decoded
+     * @param buffer little endian buffer holding the record, read with absolute gets only
+     * @param offset index in <code>buffer</code> of the start of the record
+     * @return this <code>Inode</code>
+     */
+    Inode moveTo(ByteBuffer buffer, int offset)
+    {
+        buf = buffer;
+        base = offset;
+        return this;
+    }
+
+    /**
+     * Returns an independent <code>Inode</code> over a copy of this one's record, which stays valid after the record's buffer is reused
+     * @return the copy
+     */
+    public Inode copy()
+    {
+        byte[] record = new byte[RECORD_LEN];
+        buf.get(base, record);
+        return new Inode(record);
+    }
+
+    /**
+     * Returns the raw mode field, holding the file type and permission bits
+     * @return the mode
+     */
+    public int getMode()
+    {
+        return buf.getShort(base) & 0xffff;
     }
 
     /**
-     * Creates and initialises a new <code>ByteBuffer</code> wrapping the given data, in little endian format
-     * @param data data to be wrapped
-     * @return buffer wrapping <code>data</code>
+     * Returns whether the file pointed to by this <code>Inode</code> is a directory, from the file type bits of its mode
+     * @return whether it is a directory
      */
-    private ByteBuffer initByteBuffer(byte[] data)
+    public boolean isDirectory()
     {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        buf.put(data);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        buf.flip();
-        return buf;
+        return (getMode() & IFMT) == IFDIR;
     }
 
     /**
-     * Reads this <code>Inode</code>'s file mode according to ORing with predefined constants
+     * Returns the file mode of the file pointed to by this <code>Inode</code> in Unix <code>ls</code> form, formatted on each call
+     * @return the file mode
      */
-    private void readFileMode(Short fm)
+    public String getFileMode()
     {
+        int fm = getMode();
+        char[] mode = new char[1 + PERMISSION_BITS.length];
         if ((fm & IFDIR) == IFDIR)
         {
-            fileMode += "d";
+            mode[0] = 'd';
         }
         else if ((fm & IFREG) == IFREG)
         {
-            fileMode += "-";
-        }
-        else
-        {
-            fileMode += " ";
-        }
-        if ((fm & IRUSR) == IRUSR)
-        {
-            fileMode += "r";
-        }
-        else
-        {
-            fileMode += "-";
-        }
-        if ((fm & IWUSR) == IWUSR)
-        {
-            fileMode += "w";
-        }
-        else
-        {
-            fileMode += "-";
-        }
-        if ((fm & IXUSR) == IXUSR)
-        {
-            fileMode += "x";
-        }
-        else
-        {
-            fileMode += "-";
-        }
-        if ((fm & IRGRP) == IRGRP)
-        {
-            fileMode += "r";
-        }
-        else
-        {
-            fileMode += "-";
-        }
-        if ((fm & IWGRP) == IWGRP)
-        {
-            fileMode += "w";
-        }
-        else
-        {
-            fileMode += "-";
-        }
-        if ((fm & IXGRP) == IXGRP)
-        {
-            fileMode += "x";
-        }
-        else
-        {
-            fileMode += "-";
-        }
-        if ((fm & IROTH) == IROTH)
-        {
-            fileMode += "r";
+            mode[0] = '-';
         }
         else
         {
-            fileMode += "-";
+            mode[0] = ' ';
         }
-        if ((fm & IWOTH) == IWOTH)
-        {
-            fileMode += "w";
-        }
-        else
+        for (int i = 0; i < PERMISSION_BITS.length; i++)
         {
-            fileMode += "-";
+            mode[i + 1] = ((fm & PERMISSION_BITS[i]) == PERMISSION_BITS[i] ? PERMISSION_CHARS.charAt(i) : '-');
         }
-        if ((fm & IXOTH) == IXOTH)
-        {
-            fileMode += "x";
-        }
-        else
+        return new String(mode);
+    }
+
+    /**
+     * Returns the UID associated with the file pointed to by this <code>Inode</code>
+     * @return the UID
+     */
+    public int getUID() {
+        return (buf.getShort(base + 120) & 0xffff) << 16 | (buf.getShort(base + 2) & 0xffff);
+    }
+
+    /**
+     * Returns the size, in bytes, of the file pointed to by this <code>Inode</code>.
+     * For regular files the upper 32 bits are held separately, at offset 108, where directories keep their ACL instead
+     * @return the size
+     */
+    public long getSize() {
+        long size = buf.getInt(base + 4) & 0xffffffffL;
+        if ((getMode() & IFMT) == IFREG)
         {
-            fileMode += "-";
+            size |= (buf.getInt(base + 108) & 0xffffffffL) << 32;
         }
+        return size;
     }
 
     /**
-     * Returns the file mode of the file pointed to by this <code>Inode</code>
-     * @return the file mode
+     * Returns the last accessed time of the file pointed to by this <code>Inode</code>, in seconds since the epoch
+     * @return the last accessed time
      */
-    public String getFileMode()
-    {
-        return fileMode;
+    public long getLastAccessEpoch() {
+        return buf.getInt(base + 8) & 0xffffffffL;
     }
 
     /**
-     * Returns the UID associated with the file pointed to by this <code>Inode</code>
-     * @return the UID
+     * Returns the creation time of the file pointed to by this <code>Inode</code>, in seconds since the epoch
+     * @return the creation time
      */
-    public int getUID() {
-        return UID;
+    public long getCreationEpoch() {
+        return buf.getInt(base + 12) & 0xffffffffL;
     }
 
     /**
-     * Returns the size, in bytes, of the file pointed to by this <code>Inode</code>
-     * @return the size
+     * Returns the last modified time of the file pointed to by this <code>Inode</code>, in seconds since the epoch
+     * @return the last modified time
      */
-    public int getSize() {
-        return size;
+    public long getLastModEpoch() {
+        return buf.getInt(base + 16) & 0xffffffffL;
+    }
+
+    /**
+     * Returns the deletion time of the file pointed to by this <code>Inode</code>, in seconds since the epoch
+     * @return the deletion time
+     */
+    public long getDeletedEpoch() {
+        return buf.getInt(base + 20) & 0xffffffffL;
     }
 
     /**
@@ -207,7 +188,7 @@ public class Inode
      * @return the last accessed time
      */
     public Date getLastAccessTime() {
-        return lastAccessTime;
+        return new Date(getLastAccessEpoch() * 1000);
     }
 
     /**
@@ -215,7 +196,7 @@ public class Inode
      * @return the creation time
      */
     public Date getCreationTime() {
-        return creationTime;
+        return new Date(getCreationEpoch() * 1000);
     }
 
     /**
@@ -223,7 +204,7 @@ public class Inode
      * @return the last modified time
      */
     public Date getLastModTime() {
-        return lastModTime;
+        return new Date(getLastModEpoch() * 1000);
     }
 
     /**
@@ -231,7 +212,7 @@ public class Inode
      * @return the deletion time
      */
     public Date getDeletedTime() {
-        return deletedTime;
+        return new Date(getDeletedEpoch() * 1000);
     }
 
     /**
@@ -239,7 +220,7 @@ public class Inode
      * @return the GID
      */
     public int getGID() {
-        return GID;
+        return (buf.getShort(base + 122) & 0xffff) << 16 | (buf.getShort(base + 24) & 0xffff);
     }
 
     /**
@@ -248,7 +229,17 @@ public class Inode
      */
     public short getHardLinks()
     {
-        return hardLinks;
+        return buf.getShort(base + 26);
+    }
+
+    /**
+     * Returns one of the direct pointers to the data of the file pointed to by this <code>Inode</code>
+     * @param index index of the pointer, from 0 to 11
+     * @return the pointer
+     */
+    public int getDataPointer(int index)
+    {
+        return buf.getInt(base + 40 + 4 * index);
     }
 
     /**
@@ -257,6 +248,11 @@ public class Inode
      */
     public int[] getDataPointers()
     {
+        int[] dataPointers = new int[DIRECT_POINTERS];
+        for (int i = 0; i < DIRECT_POINTERS; i++)
+        {
+            dataPointers[i] = getDataPointer(i);
+        }
         return dataPointers;
     }
 
@@ -265,7 +261,7 @@ public class Inode
      * @return the pointer
      */
     public int getIndirPointer() {
-        return indirPointer;
+        return buf.getInt(base + 88);
     }
 
     /**
@@ -273,7 +269,7 @@ public class Inode
      * @return the pointer
      */
     public int getIndir2Pointer() {
-        return indir2Pointer;
+        return buf.getInt(base + 92);
     }
 
     /**
@@ -281,6 +277,6 @@ public class Inode
      * @return the pointer
      */
     public int getIndir3Pointer() {
-        return indir3Pointer;
+        return buf.getInt(base + 96);
     }
 }
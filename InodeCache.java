@@ -0,0 +1,241 @@
+import java.util.Arrays;
+
+/**
+ * A bounded cache of decoded <code>Inode</code>s keyed by inode number.
+ * Entries are found through an open addressing table of primitive ints, and evicted in approximate least recently used order by a clock sweep.
+ * All methods are synchronized so one cache can be shared by every reader of a <code>Volume</code>
+ */
+public class InodeCache
+{
+    private final int capacity;
+    private final int[] slots;          //entry index + 1 for each hash slot, 0 when empty
+    private final int mask;
+    private final int[] keys;
+    private final Inode[] values;
+    private final boolean[] referenced;
+    private int size;
+    private int hand;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new, empty <code>InodeCache</code>
+     * @param capacity maximum number of inodes held at once, 0 to disable caching
+     */
+    public InodeCache(int capacity)
+    {
+        this.capacity = capacity;
+        int tableSize = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) << 1; //power of two at least twice the capacity, keeping probes short
+        slots = new int[tableSize];
+        mask = tableSize - 1;
+        keys = new int[capacity];
+        values = new Inode[capacity];
+        referenced = new boolean[capacity];
+    }
+
+    /**
+     * Returns the cached inode with the given number, counting a hit or a miss
+     * @param inodeNum number of the inode to look up
+     * @return the inode, or <code>null</code> if it is not cached
+     */
+    public synchronized Inode get(int inodeNum)
+    {
+        int entry = find(inodeNum);
+        if (entry < 0)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        referenced[entry] = true;
+        return values[entry];
+    }
+
+    /**
+     * Adds an inode to the cache, evicting another if the cache is full
+     * @param inodeNum number of the inode
+     * @param inode the decoded inode
+     */
+    public synchronized void put(int inodeNum, Inode inode)
+    {
+        if (capacity == 0)
+        {
+            return;
+        }
+        int entry = find(inodeNum);
+        if (entry < 0)
+        {
+            if (size < capacity)
+            {
+                entry = size++;
+            }
+            else
+            {
+                entry = evict();
+            }
+            keys[entry] = inodeNum;
+            int slot = home(inodeNum);
+            while (slots[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+        values[entry] = inode;
+        referenced[entry] = false;
+    }
+
+    /**
+     * Finds the entry holding an inode number
+     * @param inodeNum number of the inode
+     * @return the entry index, or -1 if absent
+     */
+    private int find(int inodeNum)
+    {
+        int slot = home(inodeNum);
+        while (slots[slot] != 0)
+        {
+            int entry = slots[slot] - 1;
+            if (keys[entry] == inodeNum)
+            {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Advances the clock hand past recently referenced entries, clearing their reference bits, and frees the first unreferenced entry
+     * @return the index of the freed entry
+     */
+    private int evict()
+    {
+        while (referenced[hand])
+        {
+            referenced[hand] = false;
+            hand = (hand + 1) % capacity;
+        }
+        int entry = hand;
+        hand = (hand + 1) % capacity;
+        removeSlot(entry);
+        values[entry] = null;
+        evictions++;
+        return entry;
+    }
+
+    /**
+     * Removes an entry from the hash slots, shifting later entries of the same probe run back so that lookups never stop early
+     * @param entry index of the entry to remove
+     */
+    private void removeSlot(int entry)
+    {
+        int hole = home(keys[entry]);
+        while (slots[hole] != entry + 1)
+        {
+            hole = (hole + 1) & mask;
+        }
+        slots[hole] = 0;
+        int next = (hole + 1) & mask;
+        while (slots[next] != 0)
+        {
+            int wanted = home(keys[slots[next] - 1]);
+            //move the entry back unless its home slot lies cyclically within (hole, next]
+            if (((next - wanted) & mask) >= ((next - hole) & mask))
+            {
+                slots[hole] = slots[next];
+                slots[next] = 0;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the preferred hash slot of an inode number
+     * @param inodeNum number of the inode
+     * @return the slot index
+     */
+    private int home(int inodeNum)
+    {
+        int h = inodeNum * 0x9e3779b9; //spread sequential inode numbers across the table
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Removes every inode from the cache, leaving the statistics untouched
+     */
+    public synchronized void clear()
+    {
+        Arrays.fill(slots, 0);
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+        size = 0;
+        hand = 0;
+    }
+
+    /**
+     * Returns the maximum number of inodes this cache holds
+     * @return the capacity
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of inodes currently cached
+     * @return the number of inodes
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups that found their inode in the cache
+     * @return the number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their inode in the cache
+     * @return the number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of inodes removed to make room for others
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits
+     * @return the hit rate between 0 and 1, or 0 if there have been no lookups
+     */
+    public synchronized double getHitRate()
+    {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double)hits / lookups;
+    }
+
+    /**
+     * Returns a string representation of this <code>InodeCache</code>
+     * @return the string
+     */
+    public synchronized String toString()
+    {
+        return super.toString() + " [capacity: " + capacity + ", size: " + size + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", hitRate: " + String.format("%.3f", getHitRate()) + "]";
+    }
+}
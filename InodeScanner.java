@@ -0,0 +1,160 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scans every allocated inode of a volume without going through its directories.
+ * Each block group's inode bitmap is read to find its allocated inodes, and its inode table is read in large sequential chunks, skipping chunks with nothing allocated.
+ * Records are decoded in place through one <code>Inode</code> per worker, moved from record to record, so nothing is allocated per inode.
+ * Block groups are scanned in parallel
+ */
+public class InodeScanner
+{
+    /**
+     * Receives the inodes found by a scan. It is called from several threads at once, and in no particular order.
+     * Each worker re-points one <code>Inode</code> at record after record, so an inode must be copied with <code>Inode.copy()</code> to be kept beyond the call
+     */
+    public interface Visitor
+    {
+        /**
+         * Called once for every allocated inode
+         * @param inodeNum the inode number
+         * @param inode view of the inode, valid only until the call returns
+         */
+        void visit(int inodeNum, Inode inode);
+    }
+
+    private final Volume vol;
+    private final int parallelism;
+
+    private static final int TABLE_CHUNK_BYTES = 256 * 1024;
+
+    /**
+     * Creates a new <code>InodeScanner</code> using one thread per available processor
+     * @param vol volume to scan
+     */
+    public InodeScanner(Volume vol)
+    {
+        this(vol, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new <code>InodeScanner</code>
+     * @param vol volume to scan
+     * @param parallelism number of block groups to scan at once
+     */
+    public InodeScanner(Volume vol, int parallelism)
+    {
+        this.vol = vol;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Scans every block group of the volume, passing each allocated inode to <code>visitor</code>. Returns once the whole volume has been scanned
+     * @param visitor callback to receive the inodes
+     */
+    public void scan(Visitor visitor)
+    {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int g = 0; g < vol.getGroupCount(); g++)
+        {
+            final int group = g;
+            tasks.add(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    scanGroup(group, visitor);
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Scans one block group, passing each allocated inode in it to <code>visitor</code>
+     * @param group index of the block group
+     * @param visitor callback to receive the inodes
+     */
+    public void scanGroup(int group, Visitor visitor)
+    {
+        SuperBlock sb = vol.getSuperBlock();
+        GroupDesc desc = vol.getGroupDesc(group);
+        int inodeSize = sb.getInodeSize();
+        int firstInode = group * sb.getInodesPerGroup() + 1;
+        int count = Math.min(sb.getInodesPerGroup(), sb.getNumInodes() - firstInode + 1);
+        if (count <= 0 || desc.getFreeInodes() == count)
+        {
+            return; //nothing allocated in this group
+        }
+        byte[] bitmap = new byte[(count + 7) / 8];
+        vol.readBytes(vol.getBlockPosition(desc.getInodeBitmapPointer()), bitmap, 0, bitmap.length);
+        int perChunk = Math.max(1, TABLE_CHUNK_BYTES / inodeSize);
+        byte[] chunk = new byte[perChunk * inodeSize];
+        ByteBuffer buf = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+        Inode view = new Inode(buf, 0);
+        long tableStart = vol.getBlockPosition(desc.getInodeTablePointer());
+        for (int first = 0; first < count; first += perChunk)
+        {
+            int n = Math.min(perChunk, count - first);
+            if (!anySet(bitmap, first, n))
+            {
+                continue;
+            }
+            vol.readBytes(tableStart + (long)first * inodeSize, chunk, 0, n * inodeSize);
+            for (int i = 0; i < n; i++)
+            {
+                int index = first + i;
+                if ((bitmap[index >> 3] & (1 << (index & 7))) != 0)
+                {
+                    visitor.visit(firstInode + index, view.moveTo(buf, i * inodeSize));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether any bit in a range of a bitmap is set
+     * @param bitmap the bitmap, least significant bit first
+     * @param from first bit to test
+     * @param length number of bits to test
+     * @return true if at least one bit is set
+     */
+    private static boolean anySet(byte[] bitmap, int from, int length)
+    {
+        for (int i = from; i < from + length; i++)
+        {
+            if ((i & 7) == 0 && i + 8 <= from + length)
+            {
+                if (bitmap[i >> 3] != 0)
+                {
+                    return true;
+                }
+                i += 7;
+            }
+            else if ((bitmap[i >> 3] & (1 << (i & 7))) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,531 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the path, inode number, type, size and modification time of every file and directory in a volume, answering prefix, glob and regular expression
+ * queries without touching the image. It is built by one walk of the tree and stored next to the image as <code>&lt;image&gt;.idx</code>, where later sessions
+ * reuse it as long as the superblock's write time, mount count and block count are unchanged.
+ * <p>
+ * Paths are relative to the root and start with <code>/</code>. They are kept sorted, so a prefix query is a binary search, and are front coded in the file,
+ * each storing only what differs from the path before it. Names are also kept in sorted order, so a glob with a literal start searches only the names sharing it
+ */
+public class NameIndex
+{
+    private final String[] paths;
+    private final int[] inodeNums;
+    private final byte[] types;
+    private final long[] sizes;
+    private final long[] mtimes;
+    private final int[] byName;   //entry indexes, sorted by name
+    private final boolean built;
+
+    private static final int MAGIC = 0x45324958;  //"E2IX"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".idx";
+
+    /**
+     * An entry found while walking the tree
+     */
+    private static class Entry
+    {
+        final String path;
+        final int inodeNum;
+        final byte type;
+        final long size;
+        final long mtime;
+
+        Entry(String path, int inodeNum, byte type, long size, long mtime)
+        {
+            this.path = path;
+            this.inodeNum = inodeNum;
+            this.type = type;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    /**
+     * Creates a <code>NameIndex</code> over entries sorted by path
+     */
+    private NameIndex(String[] paths, int[] inodeNums, byte[] types, long[] sizes, long[] mtimes, boolean built)
+    {
+        this.paths = paths;
+        this.inodeNums = inodeNums;
+        this.types = types;
+        this.sizes = sizes;
+        this.mtimes = mtimes;
+        this.built = built;
+        Integer[] order = new Integer[paths.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(this::getName));
+        byName = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            byName[i] = order[i];
+        }
+    }
+
+    /**
+     * Returns the index of a volume, loading it from beside the image if it is still current, or otherwise building it and saving it there.
+     * An index that cannot be saved is still returned, and is rebuilt next session
+     * @param vol the volume
+     * @param image path of the volume's image
+     * @return the index
+     */
+    public static NameIndex open(Volume vol, String image)
+    {
+        Path file = Paths.get(image + SUFFIX);
+        try
+        {
+            NameIndex index = load(file, vol.getSuperBlock());
+            if (index != null)
+            {
+                return index;
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            //not built yet
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.out.println("Ignoring unreadable index " + file + ": " + e.getMessage());
+        }
+        NameIndex index = build(vol);
+        try
+        {
+            index.save(file, vol.getSuperBlock());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not save index " + file + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index of a volume by walking its whole tree. Each directory's inodes are fetched as one batch
+     * @param vol the volume
+     * @return the index
+     */
+    public static NameIndex build(Volume vol)
+    {
+        List<Entry> entries = new ArrayList<>();
+        Deque<Entry> pending = new ArrayDeque<>();
+        pending.push(new Entry("", 2, (byte)FileInfo.TYPE_DIRECTORY, 0, 0));
+        while (!pending.isEmpty())
+        {
+            Entry dir = pending.pop();
+            FileInfo[] files = new Directory(vol, vol.getLabel() + dir.path, dir.inodeNum).getFileInfo();
+            int[] nums = new int[files.length];
+            for (int i = 0; i < files.length; i++)
+            {
+                nums[i] = files[i].getInodeNum();
+            }
+            Inode[] inodes = vol.getInodes(nums);
+            for (int i = 0; i < files.length; i++)
+            {
+                String name = files[i].getName();
+                if (name.equals(".") || name.equals(".."))
+                {
+                    continue;
+                }
+                Entry entry = new Entry(dir.path + "/" + name, nums[i], (byte)files[i].getFileType(), inodes[i].getSize(), inodes[i].getLastModEpoch());
+                entries.add(entry);
+                if (entry.type == FileInfo.TYPE_DIRECTORY)
+                {
+                    pending.push(entry);
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(e -> e.path));
+        int n = entries.size();
+        String[] paths = new String[n];
+        int[] inodeNums = new int[n];
+        byte[] types = new byte[n];
+        long[] sizes = new long[n];
+        long[] mtimes = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            Entry e = entries.get(i);
+            paths[i] = e.path;
+            inodeNums[i] = e.inodeNum;
+            types[i] = e.type;
+            sizes[i] = e.size;
+            mtimes[i] = e.mtime;
+        }
+        return new NameIndex(paths, inodeNums, types, sizes, mtimes, true);
+    }
+
+    /**
+     * Loads an index file, if it was built from the volume as it is now
+     * @param file the index file
+     * @param sb superblock of the volume
+     * @return the index, or <code>null</code> if the volume has changed since it was built
+     * @throws IOException if the file cannot be read
+     */
+    private static NameIndex load(Path file, SuperBlock sb) throws IOException
+    {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+        {
+            throw new IOException("not an index file");
+        }
+        if (in.getLong() != sb.getWriteTime() || in.getInt() != sb.getMountCount() || in.getInt() != sb.getNumBlocks())
+        {
+            return null;
+        }
+        int n = in.getInt();
+        String[] paths = new String[n];
+        int[] inodeNums = new int[n];
+        byte[] types = new byte[n];
+        long[] sizes = new long[n];
+        long[] mtimes = new long[n];
+        byte[] path = new byte[256];
+        for (int i = 0; i < n; i++)
+        {
+            int shared = (int)readVarLong(in);
+            int added = (int)readVarLong(in);
+            if (shared + added > path.length)
+            {
+                path = Arrays.copyOf(path, Math.max(path.length * 2, shared + added));
+            }
+            in.get(path, shared, added);
+            paths[i] = new String(path, 0, shared + added, StandardCharsets.UTF_8);
+            inodeNums[i] = (int)readVarLong(in);
+            types[i] = in.get();
+            sizes[i] = readVarLong(in);
+            mtimes[i] = readVarLong(in);
+        }
+        return new NameIndex(paths, inodeNums, types, sizes, mtimes, false);
+    }
+
+    /**
+     * Saves this index, writing it to a temporary file first and moving that into place, so a reader never sees half an index
+     * @param file the index file
+     * @param sb superblock of the volume, whose write time, mount count and block count identify the state indexed
+     * @throws IOException if the file cannot be written
+     */
+    private void save(Path file, SuperBlock sb) throws IOException
+    {
+        Path temp = Paths.get(file + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sb.getWriteTime());
+            out.writeInt(sb.getMountCount());
+            out.writeInt(sb.getNumBlocks());
+            out.writeInt(paths.length);
+            byte[] previous = new byte[0];
+            for (int i = 0; i < paths.length; i++)
+            {
+                byte[] path = paths[i].getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                while (shared < previous.length && shared < path.length && previous[shared] == path[shared])
+                {
+                    shared++;
+                }
+                writeVarLong(out, shared);
+                writeVarLong(out, path.length - shared);
+                out.write(path, shared, path.length - shared);
+                writeVarLong(out, Integer.toUnsignedLong(inodeNums[i]));
+                out.writeByte(types[i]);
+                writeVarLong(out, sizes[i]);
+                writeVarLong(out, mtimes[i]);
+                previous = path;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a non-negative number in 7 bit groups, least significant first, with the top bit of each byte set when more follow
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            out.writeByte((int)(value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * Reads a number written by <code>writeVarLong</code>
+     */
+    private static long readVarLong(ByteBuffer in)
+    {
+        long value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = in.get();
+            value |= (long)(b & 0x7f) << shift;
+            if (b >= 0)
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes of the entries whose path starts with a prefix, found by binary search
+     * @param prefix the prefix, such as <code>/a/b</code>
+     * @return the entry indexes, in path order
+     */
+    public int[] findPrefix(String prefix)
+    {
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < paths.length && paths[to].startsWith(prefix))
+        {
+            to++;
+        }
+        int[] found = new int[to - from];
+        for (int i = 0; i < found.length; i++)
+        {
+            found[i] = from + i;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the indexes of the entries matching a glob of <code>*</code>, <code>?</code> and <code>[...]</code>. A glob without a <code>/</code> is matched
+     * against names, as <code>find -name</code> does, and only the names sharing its literal start are tested; one with a <code>/</code> is matched against whole paths
+     * @param glob the glob
+     * @return the entry indexes, in path order
+     */
+    public int[] findGlob(String glob)
+    {
+        Pattern pattern = Pattern.compile(globToRegex(glob));
+        if (glob.indexOf('/') >= 0)
+        {
+            return scan(pattern);
+        }
+        int literal = 0;
+        while (literal < glob.length() && "*?[\\".indexOf(glob.charAt(literal)) < 0)
+        {
+            literal++;
+        }
+        String start = glob.substring(0, literal);
+        int lo = 0;
+        int hi = byName.length;
+        while (lo < hi) //first name not before start
+        {
+            int mid = (lo + hi) >>> 1;
+            if (getName(byName[mid]).compareTo(start) < 0)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        List<Integer> found = new ArrayList<>();
+        for (int i = lo; i < byName.length && getName(byName[i]).startsWith(start); i++)
+        {
+            if (pattern.matcher(getName(byName[i])).matches())
+            {
+                found.add(byName[i]);
+            }
+        }
+        int[] result = found.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the indexes of the entries whose whole path matches a regular expression, as <code>find -regex</code> does
+     * @param regex the regular expression
+     * @return the entry indexes, in path order
+     */
+    public int[] findRegex(String regex)
+    {
+        return scan(Pattern.compile(regex));
+    }
+
+    /**
+     * Returns the indexes of the entries whose whole path matches a pattern
+     */
+    private int[] scan(Pattern pattern)
+    {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++)
+        {
+            if (pattern.matcher(paths[i]).matches())
+            {
+                found.add(i);
+            }
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Translates a glob into a regular expression
+     */
+    private static String globToRegex(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+        boolean inClass = false;
+        for (int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            if (inClass)
+            {
+                regex.append(c == '\\' ? "\\\\" : c == '!' && glob.charAt(i - 1) == '[' ? "^" : String.valueOf(c));
+                inClass = (c != ']');
+            }
+            else if (c == '*')
+            {
+                regex.append("[^/]*");
+            }
+            else if (c == '?')
+            {
+                regex.append("[^/]");
+            }
+            else if (c == '[' && glob.indexOf(']', i + 2) > 0)
+            {
+                regex.append('[');
+                inClass = true;
+            }
+            else if (c == '\\' && i + 1 < glob.length())
+            {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            }
+            else
+            {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Returns the index of the first path not before a key
+     */
+    private int lowerBound(String key)
+    {
+        int lo = 0;
+        int hi = paths.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (paths[mid].compareTo(key) < 0)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the number of entries in this index
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return paths.length;
+    }
+
+    /**
+     * Returns whether this index was built by walking the volume in this session, rather than loaded from its file
+     * @return whether it was built
+     */
+    public boolean wasBuilt()
+    {
+        return built;
+    }
+
+    /**
+     * Returns the path of an entry, relative to the root and starting with <code>/</code>
+     * @param entry index of the entry
+     * @return the path
+     */
+    public String getPath(int entry)
+    {
+        return paths[entry];
+    }
+
+    /**
+     * Returns the name of an entry, the last part of its path
+     * @param entry index of the entry
+     * @return the name
+     */
+    public String getName(int entry)
+    {
+        return paths[entry].substring(paths[entry].lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Returns the inode number of an entry
+     * @param entry index of the entry
+     * @return the inode number
+     */
+    public int getInodeNum(int entry)
+    {
+        return inodeNums[entry];
+    }
+
+    /**
+     * Returns the directory entry file type of an entry, such as <code>FileInfo.TYPE_FILE</code>
+     * @param entry index of the entry
+     * @return the file type
+     */
+    public int getFileType(int entry)
+    {
+        return types[entry];
+    }
+
+    /**
+     * Returns the size, in bytes, of an entry
+     * @param entry index of the entry
+     * @return the size
+     */
+    public long getSize(int entry)
+    {
+        return sizes[entry];
+    }
+
+    /**
+     * Returns the last modified time of an entry, in seconds since the epoch
+     * @param entry index of the entry
+     * @return the last modified time
+     */
+    public long getLastModEpoch(int entry)
+    {
+        return mtimes[entry];
+    }
+
+    /**
+     * Returns a string representation of this <code>NameIndex</code>
+     * @return the string
+     */
+    public String toString()
+    {
+        return super.toString() + " [entries: " + size() + ", built: " + built + "]";
+    }
+}
@@ -0,0 +1,16 @@
+public class NotADirectoryException extends NoSuchDirectoryException
+{
+    /**
+     * Signals that a path names a file, or anything else other than a directory, where a directory was expected
+     * @param path the path that is not a directory
+     */
+    public NotADirectoryException(String path)
+    {
+        super(path);
+    }
+
+    public String getMessage()
+    {
+        return "cd: " + path + ": Not a directory";
+    }
+}
@@ -0,0 +1,290 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the read path, shared by every volume in the JVM.
+ * Recording is off unless the <code>ext2.metrics</code> system property is <code>true</code> or it is turned on with {@link #setEnabled(boolean)};
+ * while off, each instrumented call costs one field read. Counters are <code>LongAdder</code>s, so concurrent readers do not contend,
+ * and each operation's latencies go into a histogram of power of two nanosecond buckets
+ */
+public class ReadMetrics implements ReadMetricsMBean
+{
+    /**
+     * Read path operations whose latency is recorded
+     */
+    public enum Op
+    {
+        /** A read of bytes from the image, by <code>Volume.readBytes</code> */
+        VOLUME_READ,
+        /** An inode lookup, by <code>Volume.getInode</code>, or a batch of them, by <code>Volume.getInodes</code> */
+        GET_INODE,
+        /** Decoding a directory's entries, by <code>Directory</code> */
+        DIRECTORY_LOAD,
+        /** A read of file data, by <code>Ext2File.read</code> */
+        FILE_READ
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean("ext2.metrics");
+
+    private static final LongAdder blocksRead = new LongAdder();
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder inodesDecoded = new LongAdder();
+    private static final LongAdder inodeCacheHits = new LongAdder();
+    private static final LongAdder inodeCacheMisses = new LongAdder();
+    private static final LongAdder blockCacheHits = new LongAdder();
+    private static final LongAdder blockCacheMisses = new LongAdder();
+
+    private static final int BUCKETS = 64;
+    private static final LongAdder[][] histograms = new LongAdder[Op.values().length][BUCKETS];
+    private static final LongAdder[] totalNanos = new LongAdder[Op.values().length];
+    private static final String OBJECT_NAME = "Ext2FSReader:type=ReadMetrics";
+    private static final ReadMetrics INSTANCE = new ReadMetrics();
+
+    static
+    {
+        for (int op = 0; op < histograms.length; op++)
+        {
+            totalNanos[op] = new LongAdder();
+            for (int b = 0; b < BUCKETS; b++)
+            {
+                histograms[op][b] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * Registers the metrics on the platform MBean server, if they are not registered already
+     */
+    public static synchronized void registerMBean()
+    {
+        try
+        {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        }
+        catch (JMException e)
+        {
+            System.out.println("Could not register read metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a start time for {@link #record(Op, long)}, or 0 without reading the clock if recording is off
+     * @return the start time, in nanoseconds
+     */
+    public static long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the latency of an operation that began at <code>start</code>. Nothing is recorded if the operation began while recording was off
+     * @param op the operation
+     * @param start the value <code>start()</code> returned when the operation began
+     */
+    public static void record(Op op, long start)
+    {
+        if (start != 0)
+        {
+            long nanos = Math.max(1, System.nanoTime() - start);
+            totalNanos[op.ordinal()].add(nanos);
+            histograms[op.ordinal()][63 - Long.numberOfLeadingZeros(nanos)].increment();
+        }
+    }
+
+    /**
+     * Counts a read from the image
+     * @param offset position in the image the read started at
+     * @param length number of bytes read
+     * @param blockSize block size of the image, or 0 while it is not yet known, when the read counts as one block
+     */
+    public static void countRead(long offset, int length, int blockSize)
+    {
+        if (enabled)
+        {
+            blocksRead.add(blockSize == 0 ? 1 : (offset + length + blockSize - 1) / blockSize - offset / blockSize);
+            bytesRead.add(length);
+        }
+    }
+
+    /**
+     * Counts an inode record read from an inode table
+     */
+    public static void countInodeDecoded()
+    {
+        if (enabled)
+        {
+            inodesDecoded.increment();
+        }
+    }
+
+    /**
+     * Counts an inode cache lookup
+     * @param hit whether the inode was cached
+     */
+    public static void countInodeCache(boolean hit)
+    {
+        if (enabled)
+        {
+            (hit ? inodeCacheHits : inodeCacheMisses).increment();
+        }
+    }
+
+    /**
+     * Counts a block cache lookup
+     * @param hit whether the block was cached
+     */
+    public static void countBlockCache(boolean hit)
+    {
+        if (enabled)
+        {
+            (hit ? blockCacheHits : blockCacheMisses).increment();
+        }
+    }
+
+    /**
+     * Returns the metrics object registered as an MBean
+     * @return the metrics
+     */
+    public static ReadMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean on)
+    {
+        enabled = on;
+    }
+
+    @Override
+    public long getBlocksRead()
+    {
+        return blocksRead.sum();
+    }
+
+    @Override
+    public long getBytesRead()
+    {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getInodesDecoded()
+    {
+        return inodesDecoded.sum();
+    }
+
+    @Override
+    public long getInodeCacheHits()
+    {
+        return inodeCacheHits.sum();
+    }
+
+    @Override
+    public long getInodeCacheMisses()
+    {
+        return inodeCacheMisses.sum();
+    }
+
+    @Override
+    public long getBlockCacheHits()
+    {
+        return blockCacheHits.sum();
+    }
+
+    @Override
+    public long getBlockCacheMisses()
+    {
+        return blockCacheMisses.sum();
+    }
+
+    @Override
+    public String[] getLatencies()
+    {
+        Op[] ops = Op.values();
+        String[] lines = new String[ops.length];
+        for (int op = 0; op < ops.length; op++)
+        {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int b = 0; b < BUCKETS; b++)
+            {
+                counts[b] = histograms[op][b].sum();
+                count += counts[b];
+            }
+            lines[op] = String.format("%-14s count: %d, mean: %.1fus, p50: <%.1fus, p90: <%.1fus, p99: <%.1fus, max: <%.1fus", ops[op], count,
+                    count == 0 ? 0 : totalNanos[op].sum() / 1000.0 / count, percentile(counts, count, 0.5), percentile(counts, count, 0.9),
+                    percentile(counts, count, 0.99), percentile(counts, count, 1));
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the upper bound of the histogram bucket holding a percentile
+     * @param counts the histogram
+     * @param count total of the histogram
+     * @param fraction the percentile, from 0 to 1
+     * @return the bound in microseconds, 0 if the histogram is empty
+     */
+    private static double percentile(long[] counts, long count, double fraction)
+    {
+        long rank = (long)Math.ceil(count * fraction);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS && count > 0; b++)
+        {
+            seen += counts[b];
+            if (seen >= rank && counts[b] > 0)
+            {
+                return Math.scalb(1.0, b + 1) / 1000.0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void reset()
+    {
+        for (LongAdder counter : new LongAdder[] {blocksRead, bytesRead, inodesDecoded, inodeCacheHits, inodeCacheMisses, blockCacheHits, blockCacheMisses})
+        {
+            counter.reset();
+        }
+        for (int op = 0; op < histograms.length; op++)
+        {
+            totalNanos[op].reset();
+            for (LongAdder bucket : histograms[op])
+            {
+                bucket.reset();
+            }
+        }
+    }
+
+    /**
+     * Returns a string representation of these metrics, over several lines
+     * @return the string
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder(super.toString()).append(" [enabled: ").append(enabled)
+                .append(", blocksRead: ").append(getBlocksRead()).append(", bytesRead: ").append(getBytesRead()).append(", inodesDecoded: ").append(getInodesDecoded())
+                .append(", inodeCache: ").append(getInodeCacheHits()).append('/').append(getInodeCacheMisses())
+                .append(" hits/misses, blockCache: ").append(getBlockCacheHits()).append('/').append(getBlockCacheMisses()).append(" hits/misses]");
+        for (String line : getLatencies())
+        {
+            s.append("\n  ").append(line);
+        }
+        return s.toString();
+    }
+}
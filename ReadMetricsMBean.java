@@ -0,0 +1,70 @@
+/**
+ * Management interface of {@link ReadMetrics}, published on the platform MBean server as <code>Ext2FSReader:type=ReadMetrics</code>
+ */
+public interface ReadMetricsMBean
+{
+    /**
+     * Returns whether read path metrics are being recorded
+     * @return whether recording is on
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns recording of read path metrics on or off
+     * @param enabled whether to record
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns the number of blocks read from images
+     * @return the number of blocks
+     */
+    long getBlocksRead();
+
+    /**
+     * Returns the number of bytes copied out of images
+     * @return the number of bytes
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the number of inode records read from inode tables
+     * @return the number of inodes
+     */
+    long getInodesDecoded();
+
+    /**
+     * Returns the number of inode lookups answered by an inode cache
+     * @return the number of hits
+     */
+    long getInodeCacheHits();
+
+    /**
+     * Returns the number of inode lookups that had to read the inode table
+     * @return the number of misses
+     */
+    long getInodeCacheMisses();
+
+    /**
+     * Returns the number of block lookups answered by a block cache
+     * @return the number of hits
+     */
+    long getBlockCacheHits();
+
+    /**
+     * Returns the number of block lookups that had to read the image
+     * @return the number of misses
+     */
+    long getBlockCacheMisses();
+
+    /**
+     * Returns one line per timed operation with its count, mean and latency percentiles
+     * @return the lines
+     */
+    String[] getLatencies();
+
+    /**
+     * Sets every counter and histogram back to zero
+     */
+    void reset();
+}
@@ -0,0 +1,270 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Accounts for the space used in a volume by counting the set bits of every group's block and inode bitmaps, without walking any files.
+ * Groups are counted in parallel on a <code>ForkJoinPool</code>, and each bitmap is counted a <code>long</code> at a time with <code>Long.bitCount</code>
+ * over a <code>LongBuffer</code> view, straight from the mapping when the volume is mapped. The counts are checked against the free counts
+ * the group descriptors and the superblock record, and any that disagree are reported as mismatches
+ */
+public class SpaceUsage
+{
+    private final Volume vol;
+    private final int[] blocksInGroup;
+    private final int[] usedBlocks;
+    private final int[] usedInodes;
+    private final List<String> mismatches = new ArrayList<>();
+    private long totalUsedBlocks;
+    private long totalUsedInodes;
+
+    /**
+     * Counts the space used in a volume, using one worker thread per processor
+     * @param vol volume to count
+     */
+    public SpaceUsage(Volume vol)
+    {
+        this(vol, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Counts the space used in a volume
+     * @param vol volume to count
+     * @param parallelism number of worker threads to count groups with
+     */
+    public SpaceUsage(Volume vol, int parallelism)
+    {
+        this.vol = vol;
+        SuperBlock sb = vol.getSuperBlock();
+        int groups = vol.getGroupCount();
+        blocksInGroup = new int[groups];
+        usedBlocks = new int[groups];
+        usedInodes = new int[groups];
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int g = 0; g < groups; g++)
+        {
+            final int group = g;
+            blocksInGroup[g] = (int)Math.min(sb.getBlocksPerGroup(), Integer.toUnsignedLong(sb.getNumBlocks()) - sb.getFirstDataBlock() - (long)g * sb.getBlocksPerGroup());
+            tasks.add(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    GroupDesc desc = vol.getGroupDesc(group);
+                    usedBlocks[group] = countBits(desc.getBlockBitmapPointer(), blocksInGroup[group]);
+                    usedInodes[group] = countBits(desc.getInodeBitmapPointer(), sb.getInodesPerGroup());
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        check();
+    }
+
+    /**
+     * Counts the set bits among the first <code>bits</code> bits of a bitmap block. Whole <code>long</code>s are counted directly and the last is masked,
+     * so padding bits past the end of a short last group are not counted
+     * @param bitmapBlock block holding the bitmap
+     * @param bits number of bits in use
+     * @return the number of set bits
+     */
+    private int countBits(int bitmapBlock, int bits)
+    {
+        int longs = (bits + 63) / 64;
+        ByteBuffer bytes;
+        if (vol.getIoMode() == Volume.IoMode.MAPPED)
+        {
+            bytes = vol.getBlockBuffer(bitmapBlock, 0, longs * 8);
+        }
+        else
+        {
+            byte[] data = new byte[longs * 8];
+            vol.readBytes(vol.getBlockPosition(bitmapBlock), data, 0, data.length); //read directly so the bitmaps do not flood the block cache
+            bytes = ByteBuffer.wrap(data);
+        }
+        LongBuffer words = bytes.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer(); //bit i of the bitmap is bit i % 64 of little endian word i / 64
+        int count = 0;
+        for (int i = 0; i < longs - 1; i++)
+        {
+            count += Long.bitCount(words.get(i));
+        }
+        long last = words.get(longs - 1);
+        if (bits % 64 != 0)
+        {
+            last &= (1L << (bits % 64)) - 1;
+        }
+        return count + Long.bitCount(last);
+    }
+
+    /**
+     * Totals the counts and records where they disagree with the group descriptors and the superblock
+     */
+    private void check()
+    {
+        SuperBlock sb = vol.getSuperBlock();
+        long descFreeBlocks = 0;
+        long descFreeInodes = 0;
+        for (int g = 0; g < usedBlocks.length; g++)
+        {
+            GroupDesc desc = vol.getGroupDesc(g);
+            totalUsedBlocks += usedBlocks[g];
+            totalUsedInodes += usedInodes[g];
+            descFreeBlocks += desc.getFreeBlocks();
+            descFreeInodes += desc.getFreeInodes();
+            if (desc.getFreeBlocks() != blocksInGroup[g] - usedBlocks[g])
+            {
+                mismatches.add("group " + g + ": descriptor records " + desc.getFreeBlocks() + " free blocks, bitmap has " + (blocksInGroup[g] - usedBlocks[g]));
+            }
+            if (desc.getFreeInodes() != sb.getInodesPerGroup() - usedInodes[g])
+            {
+                mismatches.add("group " + g + ": descriptor records " + desc.getFreeInodes() + " free inodes, bitmap has " + (sb.getInodesPerGroup() - usedInodes[g]));
+            }
+        }
+        if (Integer.toUnsignedLong(sb.getFreeBlocks()) != getFreeBlocks())
+        {
+            mismatches.add("superblock records " + Integer.toUnsignedLong(sb.getFreeBlocks()) + " free blocks, bitmaps have " + getFreeBlocks() + " and descriptors " + descFreeBlocks);
+        }
+        if (Integer.toUnsignedLong(sb.getFreeInodes()) != getFreeInodes())
+        {
+            mismatches.add("superblock records " + Integer.toUnsignedLong(sb.getFreeInodes()) + " free inodes, bitmaps have " + getFreeInodes() + " and descriptors " + descFreeInodes);
+        }
+    }
+
+    /**
+     * Returns the number of block groups counted
+     * @return the number of groups
+     */
+    public int getGroupCount()
+    {
+        return usedBlocks.length;
+    }
+
+    /**
+     * Returns the number of blocks in a group, fewer than the blocks per group for a short last group
+     * @param group index of the group
+     * @return the number of blocks
+     */
+    public int getBlocksInGroup(int group)
+    {
+        return blocksInGroup[group];
+    }
+
+    /**
+     * Returns the number of blocks a group's bitmap marks as used
+     * @param group index of the group
+     * @return the number of used blocks
+     */
+    public int getUsedBlocks(int group)
+    {
+        return usedBlocks[group];
+    }
+
+    /**
+     * Returns the number of inodes a group's bitmap marks as used
+     * @param group index of the group
+     * @return the number of used inodes
+     */
+    public int getUsedInodes(int group)
+    {
+        return usedInodes[group];
+    }
+
+    /**
+     * Returns the number of blocks in all groups
+     * @return the number of blocks
+     */
+    public long getTotalBlocks()
+    {
+        return Integer.toUnsignedLong(vol.getSuperBlock().getNumBlocks()) - vol.getSuperBlock().getFirstDataBlock();
+    }
+
+    /**
+     * Returns the number of blocks the bitmaps mark as used
+     * @return the number of used blocks
+     */
+    public long getUsedBlocks()
+    {
+        return totalUsedBlocks;
+    }
+
+    /**
+     * Returns the number of blocks the bitmaps leave free
+     * @return the number of free blocks
+     */
+    public long getFreeBlocks()
+    {
+        return getTotalBlocks() - totalUsedBlocks;
+    }
+
+    /**
+     * Returns the number of free blocks available to ordinary users, once the blocks reserved for the super user are set aside
+     * @return the number of available blocks
+     */
+    public long getAvailableBlocks()
+    {
+        return Math.max(0, getFreeBlocks() - Integer.toUnsignedLong(vol.getSuperBlock().getReservedBlocks()));
+    }
+
+    /**
+     * Returns the number of inodes in all groups
+     * @return the number of inodes
+     */
+    public long getTotalInodes()
+    {
+        return (long)getGroupCount() * vol.getSuperBlock().getInodesPerGroup();
+    }
+
+    /**
+     * Returns the number of inodes the bitmaps mark as used
+     * @return the number of used inodes
+     */
+    public long getUsedInodes()
+    {
+        return totalUsedInodes;
+    }
+
+    /**
+     * Returns the number of inodes the bitmaps leave free
+     * @return the number of free inodes
+     */
+    public long getFreeInodes()
+    {
+        return getTotalInodes() - totalUsedInodes;
+    }
+
+    /**
+     * Returns a description of each count that disagrees with the group descriptors or the superblock, empty if all agree
+     * @return the mismatches
+     */
+    public List<String> getMismatches()
+    {
+        return mismatches;
+    }
+
+    /**
+     * Returns a string representation of this <code>SpaceUsage</code>
+     * @return the string
+     */
+    public String toString()
+    {
+        return super.toString() + " [groups: " + getGroupCount() + ", blocks: " + getUsedBlocks() + "/" + getTotalBlocks() + " used, inodes: " + getUsedInodes() + "/" + getTotalInodes() + " used, mismatches: " + mismatches.size() + "]";
+    }
+}
@@ -2,18 +2,23 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 /**
- * Represents an ext2 file system Super block
+ * Represents an ext2 file system Super block. Instances are immutable and so safe to share between threads
  */
 public class SuperBlock
 {
-    private byte[] data;
-    private int numInodes;
-    private int numBlocks;
-    private int blockSize;
-    private int blocksPerGroup;
-    private int inodesPerGroup;
-    private int inodeSize;
-    private String label = "";
+    private final int numInodes;
+    private final int numBlocks;
+    private final int reservedBlocks;
+    private final int freeBlocks;
+    private final int freeInodes;
+    private final int blockSize;
+    private final int firstDataBlock;
+    private final int blocksPerGroup;
+    private final int inodesPerGroup;
+    private final int inodeSize;
+    private final long writeTime;
+    private final int mountCount;
+    private final String label;
 
     private static final short EXT2_MAGIC_NUM = (short)0xef53;
     private static final int MAGIC_NUM_OFFSET = 56;
@@ -24,25 +29,30 @@ public class SuperBlock
      */
     public SuperBlock(byte[] data)
     {
-        this.data = data;
-        blockSize = data.length;
-        ByteBuffer buf = initByteBuffer(this.data);
-        if (buf.getShort(MAGIC_NUM_OFFSET) == EXT2_MAGIC_NUM) //if magic number matches required value for Ext2 (0xef53)
+        ByteBuffer buf = initByteBuffer(data);
+        if (buf.getShort(MAGIC_NUM_OFFSET) != EXT2_MAGIC_NUM) //if magic number does not match required value for Ext2 (0xef53)
         {
-            numInodes = buf.getInt(0);
-            numBlocks = buf.getInt(4);
-            blocksPerGroup = buf.getInt(32);
-            inodesPerGroup = buf.getInt(40);
-            inodeSize = buf.getInt(88);
-            for (int i = 0; i < 16; i++)
-            {
-                label += (char)buf.get(120 + i);
-            }
+            System.out.println("Error: file may not be a valid ext2 file system volume.");
+            buf = initByteBuffer(new byte[data.length]); //decode from zeroes rather than garbage
         }
-        else
+        blockSize = 1024 << buf.getInt(24);
+        numInodes = buf.getInt(0);
+        numBlocks = buf.getInt(4);
+        reservedBlocks = buf.getInt(8);
+        freeBlocks = buf.getInt(12);
+        freeInodes = buf.getInt(16);
+        firstDataBlock = buf.getInt(20);
+        blocksPerGroup = buf.getInt(32);
+        inodesPerGroup = buf.getInt(40);
+        inodeSize = buf.getInt(88);
+        writeTime = buf.getInt(48) & 0xffffffffL;
+        mountCount = buf.getShort(52) & 0xffff;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 16; i++)
         {
-            System.out.println("Error: file may not be a valid ext2 file system volume.");
+            sb.append((char)buf.get(120 + i));
         }
+        label = sb.toString();
     }
 
     /**
@@ -75,6 +85,30 @@ public class SuperBlock
         return numBlocks;
     }
 
+    /**
+     * Returns number of blocks reserved for the super user in the Volume this super block belongs to
+     * @return the number of reserved blocks
+     */
+    public int getReservedBlocks() {
+        return reservedBlocks;
+    }
+
+    /**
+     * Returns number of free blocks in the Volume this super block belongs to, as last recorded in the super block
+     * @return the number of free blocks
+     */
+    public int getFreeBlocks() {
+        return freeBlocks;
+    }
+
+    /**
+     * Returns number of free inodes in the Volume this super block belongs to, as last recorded in the super block
+     * @return the number of free inodes
+     */
+    public int getFreeInodes() {
+        return freeInodes;
+    }
+
     /**
      * Returns block size, in bytes, of the blocks in the Volume this super block belongs to
      * @return the block size
@@ -83,6 +117,22 @@ public class SuperBlock
         return blockSize;
     }
 
+    /**
+     * Returns the number of the first block of the first block group, 1 for 1 KiB blocks and 0 otherwise
+     * @return the first data block
+     */
+    public int getFirstDataBlock() {
+        return firstDataBlock;
+    }
+
+    /**
+     * Returns number of block groups in the Volume this super block belongs to
+     * @return the number of block groups
+     */
+    public int getGroupCount() {
+        return blocksPerGroup == 0 ? 0 : (int)((Integer.toUnsignedLong(numBlocks) - firstDataBlock + blocksPerGroup - 1) / blocksPerGroup);
+    }
+
     /**
      * Returns number of blocks in each block group in the Volume this super block belongs to
      * @return the number blocks per block group
@@ -107,6 +157,22 @@ public class SuperBlock
         return inodeSize;
     }
 
+    /**
+     * Returns the time the Volume this super block belongs to was last written to, in seconds since the epoch
+     * @return the last write time
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * Returns the number of times the Volume this super block belongs to has been mounted since it was last checked
+     * @return the mount count
+     */
+    public int getMountCount() {
+        return mountCount;
+    }
+
     /**
      * Returns the label of the Volume this super block belongs to
      * @return the label
@@ -121,6 +187,6 @@ public class SuperBlock
      */
     public String toString()
     {
-        return super.toString() + " [numInodes: " + getNumInodes() + ", numBlocks: " + getNumBlocks() + ", blocksPerGroup: " + getBlocksPerGroup() + ", inodesPerGroup: " + getInodesPerGroup() + ", inodeSize: " + getInodeSize() + ", label: \"" + getLabel() + "\"]";
+        return super.toString() + " [numInodes: " + getNumInodes() + ", numBlocks: " + getNumBlocks() + ", freeBlocks: " + getFreeBlocks() + ", freeInodes: " + getFreeInodes() + ", blocksPerGroup: " + getBlocksPerGroup() + ", inodesPerGroup: " + getInodesPerGroup() + ", inodeSize: " + getInodeSize() + ", label: \"" + getLabel() + "\"]";
     }
 }
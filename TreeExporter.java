@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies a whole directory tree out of a volume onto the host, extracting files concurrently.
+ * The tree is walked by a {@link TreeWalk}, with the host path each directory and file is exported to as its context
+ */
+public class TreeExporter
+{
+    private final Volume vol;
+    private final int parallelism;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a new <code>TreeExporter</code>
+     * @param vol volume to export from
+     * @param parallelism number of worker threads to extract files with
+     */
+    public TreeExporter(Volume vol, int parallelism)
+    {
+        this.vol = vol;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Exports a directory and everything below it into a host directory, which is created if needed.
+     * Files that cannot be extracted are skipped and reported through {@link #getErrors()}
+     * @param dir directory to export
+     * @param target host directory to export into
+     * @param progress stream to report progress to about once a second, or <code>null</code> for none
+     */
+    public void export(Directory dir, Path target, PrintStream progress)
+    {
+        long start = System.nanoTime();
+        ScheduledExecutorService reporter = null;
+        if (progress != null)
+        {
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(() -> progress.println(getProgress(start)), 1, 1, TimeUnit.SECONDS);
+        }
+        try
+        {
+            new TreeWalk(vol, parallelism).walk(dir, target, new Exporter());
+        }
+        finally
+        {
+            if (reporter != null)
+            {
+                reporter.shutdown();
+                progress.println(getProgress(start));
+            }
+        }
+    }
+
+    /**
+     * Returns a line describing how much has been exported so far and how fast
+     * @param start value of <code>System.nanoTime()</code> when the export began
+     * @return the progress line
+     */
+    private String getProgress(long start)
+    {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        double mb = bytes.sum() / (1024.0 * 1024.0);
+        return String.format("export: %d files, %.1f MB in %.1fs (%.0f files/s, %.1f MB/s)", files.sum(), mb, seconds, files.sum() / seconds, mb / seconds);
+    }
+
+    /**
+     * Returns the number of files exported so far
+     * @return the number of files
+     */
+    public long getFilesExported()
+    {
+        return files.sum();
+    }
+
+    /**
+     * Returns the number of bytes of file data exported so far, excluding holes
+     * @return the number of bytes
+     */
+    public long getBytesExported()
+    {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns a message for each file or directory that could not be exported
+     * @return the error messages
+     */
+    public List<String> getErrors()
+    {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * Exports each directory and file of the walk, with the host path it is exported to as its context
+     */
+    private class Exporter implements TreeWalk.Visitor<Path>
+    {
+        /**
+         * Creates the host directory a directory is exported into
+         * @param dir the directory
+         * @param target host directory to export it into
+         * @return <code>target</code>, or <code>null</code> if it could not be created
+         */
+        @Override
+        public Path enterDirectory(Directory dir, Path target)
+        {
+            try
+            {
+                Files.createDirectories(target);
+                return target;
+            }
+            catch (IOException e)
+            {
+                errors.add(target + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Returns where an entry of a directory being exported goes on the host. Names come from the image and cannot be trusted,
+         * so a name that is empty, holds a separator or a NUL, or would otherwise resolve outside <code>target</code> is refused and reported
+         * @param entry the entry
+         * @param target host directory the entry's directory is exported into
+         * @return the host path for the entry, or <code>null</code> if the name is unsafe
+         */
+        @Override
+        public Path entry(FileInfo entry, Path target)
+        {
+            String name = entry.getName();
+            Path base = target.normalize();
+            Path resolved = (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0 ? null : base.resolve(name).normalize());
+            if (resolved == null || !resolved.startsWith(base) || resolved.equals(base))
+            {
+                errors.add(target + ": skipped entry with unsafe name \"" + name + "\"");
+                return null;
+            }
+            return resolved;
+        }
+
+        /**
+         * Exports one regular file
+         * @param file the file's entry in its directory
+         * @param target host path to export it to
+         */
+        @Override
+        public void visitFile(FileInfo file, Path target)
+        {
+            try
+            {
+                bytes.add(new Ext2File(vol, file).copyTo(target));
+                files.increment();
+            }
+            catch (IOException e)
+            {
+                errors.add(target + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Reports a directory or file that could not be exported because the image is corrupt
+         * @param target host path of the directory or file
+         * @param e the exception
+         */
+        @Override
+        public void failed(Path target, RuntimeException e)
+        {
+            errors.add(target + ": " + e);
+        }
+    }
+}
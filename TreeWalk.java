@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks a directory tree of a volume in parallel. Each subdirectory and each regular file becomes a task on a <code>ForkJoinPool</code>,
+ * so idle workers steal whole subtrees from busy ones. What is done at each directory and file is left to a {@link Visitor},
+ * which carries a context of its own choosing, such as a host path or a path to print, down the tree
+ */
+public class TreeWalk
+{
+    /**
+     * Receives the directories and files of a walk. It is called from several threads at once, and in no particular order across directories
+     * @param <C> type of the context carried down the tree
+     */
+    public interface Visitor<C>
+    {
+        /**
+         * Called for each directory, before its entries are listed
+         * @param dir the directory
+         * @param context the directory's context
+         * @return the context to pass on to the directory's entries, or <code>null</code> to skip them
+         */
+        C enterDirectory(Directory dir, C context);
+
+        /**
+         * Called for each entry of a directory other than <code>.</code> and <code>..</code>, to give it its context
+         * @param entry the entry
+         * @param dirContext context of the directory holding it
+         * @return the entry's context, or <code>null</code> to skip it, and everything below it if it is a directory
+         */
+        C entry(FileInfo entry, C dirContext);
+
+        /**
+         * Called for each regular file, in a task of its own
+         * @param file the file's entry in its directory
+         * @param context the file's context
+         */
+        void visitFile(FileInfo file, C context);
+
+        /**
+         * Called when listing a directory or visiting a file fails with a <code>RuntimeException</code>, as a corrupt image can cause.
+         * The rest of the walk carries on
+         * @param context context of the directory or file
+         * @param e the exception
+         */
+        void failed(C context, RuntimeException e);
+    }
+
+    private final Volume vol;
+    private final int parallelism;
+
+    /**
+     * Creates a new <code>TreeWalk</code>
+     * @param vol volume to walk
+     * @param parallelism number of worker threads to walk with
+     */
+    public TreeWalk(Volume vol, int parallelism)
+    {
+        this.vol = vol;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Walks a directory and everything below it, returning once every directory and file has been visited
+     * @param <C> type of the context carried down the tree
+     * @param dir directory to start from
+     * @param context context of <code>dir</code>
+     * @param visitor callback to receive the directories and files
+     */
+    public <C> void walk(Directory dir, C context, Visitor<C> visitor)
+    {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            pool.invoke(new DirTask<>(dir, context, visitor));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Visits one directory, forking a task for each file and subdirectory in it
+     */
+    private class DirTask<C> extends RecursiveAction
+    {
+        private final Directory dir;
+        private final C context;
+        private final Visitor<C> visitor;
+
+        private DirTask(Directory dir, C context, Visitor<C> visitor)
+        {
+            this.dir = dir;
+            this.context = context;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute()
+        {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            try
+            {
+                C dirContext = visitor.enterDirectory(dir, context);
+                if (dirContext == null)
+                {
+                    return;
+                }
+                for (FileInfo fi : dir.getFileInfo())
+                {
+                    if (fi.getName().equals(".") || fi.getName().equals("..") || (fi.getFileType() != FileInfo.TYPE_DIRECTORY && fi.getFileType() != FileInfo.TYPE_FILE))
+                    {
+                        continue;
+                    }
+                    C entryContext = visitor.entry(fi, dirContext);
+                    if (entryContext == null)
+                    {
+                        continue;
+                    }
+                    if (fi.getFileType() == FileInfo.TYPE_DIRECTORY)
+                    {
+                        tasks.add(new DirTask<>(new Directory(vol, dir.getPath() + "/" + fi.getName(), fi.getInodeNum()), entryContext, visitor));
+                    }
+                    else
+                    {
+                        tasks.add(new FileTask<>(fi, entryContext, visitor));
+                    }
+                }
+            }
+            catch (RuntimeException e) //a corrupt directory; what was listed of it before the fault is still visited
+            {
+                visitor.failed(context, e);
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Visits one regular file
+     */
+    private static class FileTask<C> extends RecursiveAction
+    {
+        private final FileInfo info;
+        private final C context;
+        private final Visitor<C> visitor;
+
+        private FileTask(FileInfo info, C context, Visitor<C> visitor)
+        {
+            this.info = info;
+            this.context = context;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute()
+        {
+            try
+            {
+                visitor.visitFile(info, context);
+            }
+            catch (RuntimeException e)
+            {
+                visitor.failed(context, e);
+            }
+        }
+    }
+}
@@ -1,33 +1,112 @@
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents an ext2 file system volume
  */
-public class Volume
+public class Volume implements Closeable
 {
-    private RandomAccessFile f;
-    private SuperBlock superBlock;
-    private Helper help;
-	private int blockSize;
+    /**
+     * Strategies available for reading the underlying image file
+     */
+    public enum IoMode
+    {
+        /** Image is mapped into memory in chunks and blocks are served as slices of the mapping */
+        MAPPED,
+        /** Image is read through the <code>FileChannel</code> of a <code>RandomAccessFile</code>, one positional read per request */
+        RANDOM_ACCESS
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final IoMode mode;
+    private volatile BlockCache blockCache = new BlockCache(DEFAULT_BLOCK_CACHE_BLOCKS);
+    private volatile InodeCache inodeCache = new InodeCache(DEFAULT_INODE_CACHE_SIZE);
+    private volatile DentryCache dentryCache = new DentryCache(DEFAULT_DENTRY_CACHE_SIZE);
+    private final SuperBlock superBlock;
+    private final int[] groupDescs;
+    private final int blockSize;
+    private volatile int readAheadMin = DEFAULT_READ_AHEAD_MIN;
+    private volatile int readAheadMax = DEFAULT_READ_AHEAD_MAX;
+    private volatile BlockCache readAheadCache = new BlockCache(READ_AHEAD_WINDOWS * DEFAULT_READ_AHEAD_MAX);
+    private ExecutorService ioExecutor;
+    private volatile boolean closed;
+    private final Queue<Runnable> pendingIo = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder prefetchRequests = new LongAdder();
+    private final LongAdder prefetchedBlocks = new LongAdder();
+    private final LongAdder readAheadHits = new LongAdder();
+
+    private static final int SUPERBLOCK_OFFSET = 1024;
+    private static final int SUPERBLOCK_LEN = 1024;
+    private static final int GROUP_DESC_LEN = 32;
+    private static final int DEFAULT_BLOCK_CACHE_BLOCKS = 1024;
+    private static final int DEFAULT_INODE_CACHE_SIZE = 4096;
+    private static final int DEFAULT_DENTRY_CACHE_SIZE = 4096;
+    private static final int DEFAULT_READ_AHEAD_MIN = 8;
+    private static final int DEFAULT_READ_AHEAD_MAX = 256;
+    private static final int READ_AHEAD_WINDOWS = 2;    //largest windows the read-ahead pool holds, one being read and the next arriving
+    private static final int IO_THREADS = 4;
+    private static final int MAX_IN_FLIGHT = IO_THREADS;   //one read per thread, so reads beyond it wait in pendingIo rather than in the executor's own queue
+    private static final int MAX_RUN_BLOCKS = 256;
+    private static final int MAP_CHUNK_SHIFT = 30; //1 GiB, a multiple of every valid block size
 
-	private static final int BLOCK_SIZE_OFFSET = 1024 + 24;
-	private static final int GROUP_DESC_LEN = 32;
     /**
-     * Opens the Volume represented by the host Windows/ Linux <code>filename</code>
+     * Opens the Volume represented by the host Windows/ Linux <code>filename</code>, memory mapping it where possible
      * @param fileName the f system image f to open
      */
     public Volume(String fileName)
     {
-        help = new Helper();
+        this(fileName, IoMode.MAPPED);
+    }
+
+    /**
+     * Opens the Volume represented by the host Windows/ Linux <code>filename</code> using the given I/O mode.
+     * If the image cannot be mapped, the volume falls back to <code>IoMode.RANDOM_ACCESS</code>.
+     * All reads are positional, so once opened a Volume, and the <code>SuperBlock</code>, <code>GroupDesc</code> and <code>Inode</code> instances it returns,
+     * can be shared by any number of threads
+     * @param fileName the f system image f to open
+     * @param mode the I/O mode to read the image with
+     */
+    public Volume(String fileName, IoMode mode)
+    {
+        channel = open(fileName);
+        chunks = (mode == IoMode.MAPPED && channel != null ? mapChunks(fileName) : null);
+        this.mode = (chunks == null ? IoMode.RANDOM_ACCESS : IoMode.MAPPED);
+        superBlock = new SuperBlock(getBytes(SUPERBLOCK_OFFSET, SUPERBLOCK_LEN)); //superblock always lives at byte 1024, whatever the block size
+        blockSize = superBlock.getBlockSize();
+        groupDescs = readGroupDescs();
+    }
+
+    /**
+     * Opens the channel all reads of the image go through
+     * @param fileName the f system image f to open
+     * @return the channel, or <code>null</code> if the image could not be opened
+     */
+    private static FileChannel open(String fileName)
+    {
         try
         {
-            f = new RandomAccessFile(fileName, "r");
-            f.seek(BLOCK_SIZE_OFFSET);
-            blockSize = 1024 * (int)Math.pow(2, f.readInt()); //get FS block size before anything else
+            return new RandomAccessFile(fileName, "r").getChannel();
         }
         catch (FileNotFoundException e)
         {
@@ -39,27 +118,184 @@ public class Volume
             System.out.println("File \"" + fileName + "\" could not be accessed: permission denied.");
             System.out.println(e.getMessage());
         }
+        return null;
+    }
+
+    /**
+     * Reads and decodes the descriptor of every block group into a compact table, so that later lookups need no I/O.
+     * The descriptor table starts in the block after the one holding the superblock
+     * @return table of <code>GroupDesc.FIELDS</code> ints per group
+     */
+    private int[] readGroupDescs()
+    {
+        int groups = superBlock.getGroupCount();
+        ByteBuffer table = getBuffer((long)(superBlock.getFirstDataBlock() + 1) * blockSize, groups * GROUP_DESC_LEN);
+        int[] descs = new int[groups * GroupDesc.FIELDS];
+        for (int i = 0; i < groups; i++)
+        {
+            new GroupDesc(table.slice(i * GROUP_DESC_LEN, GROUP_DESC_LEN)).writeTo(descs, i);
+        }
+        return descs;
+    }
+
+    /**
+     * Maps the whole image read-only, in chunks of at most 2^<code>MAP_CHUNK_SHIFT</code> bytes
+     * @param fileName name of the image, for error messages
+     * @return the mapped chunks, or <code>null</code> if the image cannot be mapped
+     */
+    private MappedByteBuffer[] mapChunks(String fileName)
+    {
+        try
+        {
+            long size = channel.size();
+            long chunkSize = 1L << MAP_CHUNK_SHIFT;
+            MappedByteBuffer[] mapped = new MappedByteBuffer[(int)((size + chunkSize - 1) >> MAP_CHUNK_SHIFT)];
+            for (int i = 0; i < mapped.length; i++)
+            {
+                long start = (long)i << MAP_CHUNK_SHIFT;
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+            }
+            return mapped;
+        }
         catch (IOException e)
         {
+            System.out.println("File \"" + fileName + "\" could not be mapped, falling back to random access.");
             System.out.println(e.getMessage());
+            return null;
         }
-        superBlock = new SuperBlock(getBlock(1));
-        blockSize = superBlock.getBlockSize();
     }
 
     /**
-     * Creates and returns an instance of <code>Inode</code> created from this volume using it's inode number
+     * Returns the <code>Inode</code> with the given number in this volume, from the inode cache if possible
      * @param inodeNumber number of inode to be returned
      * @return the inode
      */
     public Inode getInode(int inodeNumber)
+    {
+        long start = ReadMetrics.start();
+        InodeCache cache = inodeCache;
+        Inode inode = cache.get(inodeNumber);
+        ReadMetrics.countInodeCache(inode != null);
+        if (inode == null)
+        {
+            inode = readInode(inodeNumber);
+            cache.put(inodeNumber, inode);
+        }
+        ReadMetrics.record(ReadMetrics.Op.GET_INODE, start);
+        return inode;
+    }
+
+    /**
+     * Returns the inodes with the given numbers, reading each inode table block needed at most once.
+     * Inodes not already cached are sorted by the table block holding them, so the table is read in order rather than at random
+     * @param inodeNumbers numbers of the inodes to return
+     * @return the inodes, in the same order as <code>inodeNumbers</code>
+     */
+    public Inode[] getInodes(int[] inodeNumbers)
+    {
+        long start = ReadMetrics.start();
+        InodeCache cache = inodeCache;
+        Inode[] inodes = new Inode[inodeNumbers.length];
+        long[] misses = new long[inodeNumbers.length];
+        int missCount = 0;
+        for (int i = 0; i < inodeNumbers.length; i++)
+        {
+            inodes[i] = cache.get(inodeNumbers[i]);
+            ReadMetrics.countInodeCache(inodes[i] != null);
+            if (inodes[i] == null)
+            {
+                misses[missCount++] = (inodeOffset(inodeNumbers[i]) / blockSize) << 31 | i; //sort key: table block, then position in the request
+            }
+        }
+        Arrays.sort(misses, 0, missCount);
+        ByteBuffer block = null;
+        long blockNum = -1;
+        for (int m = 0; m < missCount; m++)
+        {
+            int i = (int)(misses[m] & Integer.MAX_VALUE);
+            long offset = inodeOffset(inodeNumbers[i]);
+            if (offset / blockSize != blockNum)
+            {
+                blockNum = offset / blockSize;
+                block = getBlockBuffer((int)blockNum);
+            }
+            inodes[i] = recordToInode(block, (int)(offset % blockSize));
+            cache.put(inodeNumbers[i], inodes[i]);
+        }
+        ReadMetrics.record(ReadMetrics.Op.GET_INODE, start);
+        return inodes;
+    }
+
+    /**
+     * Creates and returns an instance of <code>Inode</code> read from this volume using it's inode number
+     * @param inodeNumber number of inode to be returned
+     * @return the inode
+     */
+    private Inode readInode(int inodeNumber)
+    {
+        long offset = inodeOffset(inodeNumber);
+        return recordToInode(getBlockBuffer((int)(offset / blockSize)), (int)(offset % blockSize));
+    }
+
+    /**
+     * Creates an <code>Inode</code> from a record within a block. A mapped record is viewed in place; otherwise it is copied,
+     * so a cached inode does not pin its whole table block
+     * @param block buffer over the inode table block
+     * @param offset offset of the record within the block
+     * @return the inode
+     */
+    private Inode recordToInode(ByteBuffer block, int offset)
+    {
+        ReadMetrics.countInodeDecoded();
+        if (mode == IoMode.MAPPED)
+        {
+            return new Inode(block.slice(offset, superBlock.getInodeSize()));
+        }
+        byte[] record = new byte[superBlock.getInodeSize()];
+        block.get(offset, record);
+        return new Inode(record);
+    }
+
+    /**
+     * Returns the position of an inode's record in the image, using only the group descriptor table decoded when this volume was opened
+     * @param inodeNumber number of the inode
+     * @return number of bytes from the start of the image to the record
+     */
+    private long inodeOffset(int inodeNumber)
     {
         inodeNumber--;
         int groupNum = inodeNumber / superBlock.getInodesPerGroup();
         int tableIndex = (inodeNumber % superBlock.getInodesPerGroup());
-        GroupDesc tempDesc = new GroupDesc(getBlock(2, groupNum * GROUP_DESC_LEN, GROUP_DESC_LEN));
-        byte[] d = getBlock(tempDesc.getInodeTablePointer(), superBlock.getInodeSize() * tableIndex, superBlock.getInodeSize());
-        return new Inode(d);
+        int inodeTablePointer = groupDescs[groupNum * GroupDesc.FIELDS + GroupDesc.INODE_TABLE_FIELD];
+        return blockOffset(inodeTablePointer, superBlock.getInodeSize() * tableIndex);
+    }
+
+    /**
+     * Returns the descriptor of a block group, decoded when this volume was opened
+     * @param groupNum index of the block group
+     * @return the group descriptor
+     */
+    public GroupDesc getGroupDesc(int groupNum)
+    {
+        return new GroupDesc(groupDescs, groupNum);
+    }
+
+    /**
+     * Returns the number of block groups in this volume
+     * @return the number of block groups
+     */
+    public int getGroupCount()
+    {
+        return superBlock.getGroupCount();
+    }
+
+    /**
+     * Returns the superblock of this volume
+     * @return the superblock
+     */
+    public SuperBlock getSuperBlock()
+    {
+        return superBlock;
     }
 
     /**
@@ -68,19 +304,452 @@ public class Volume
      * @param length number of bytes to read beyond the offset
      * @return a byte array of the data between <code>offset</code> and <code>length</code>
      */
-    private byte[] getBytes(int offset, int length)
+    private byte[] getBytes(long offset, int length)
     {
         byte[] data = new byte[length];
+        readBytes(offset, data, 0, length);
+        return data;
+    }
+
+    /**
+     * Reads <code>length</code> bytes of this Volume's file data, starting at <code>offset</code> bytes from the start of the file, in a single request.
+     * The data does not pass through the block cache, which makes this suited to large reads of file data
+     * @param offset number of bytes from the start of the file from which to read
+     * @param dst array to read into
+     * @param dstOffset index in <code>dst</code> of the first byte read
+     * @param length number of bytes to read
+     */
+    public void readBytes(long offset, byte[] dst, int dstOffset, int length)
+    {
+        long start = ReadMetrics.start();
+        ReadMetrics.countRead(offset, length, blockSize);
+        if (mode == IoMode.MAPPED)
+        {
+            copyMapped(offset, dst, dstOffset, length);
+            ReadMetrics.record(ReadMetrics.Op.VOLUME_READ, start);
+            return;
+        }
         try
         {
-            f.seek(offset);
-            f.read(data);
+            readChannel(offset, dst, dstOffset, length);
         }
         catch (IOException e)
         {
             System.out.println("Error reading file system.");
             System.out.println(e.getMessage());
         }
+        ReadMetrics.record(ReadMetrics.Op.VOLUME_READ, start);
+    }
+
+    /**
+     * Reads image data from the channel with positional reads until <code>length</code> bytes are read or the image ends.
+     * A positional read leaves the channel's own position alone, so concurrent reads cannot disturb each other
+     * @param offset number of bytes from the start of the file from which to read
+     * @param dst array to read into
+     * @param dstOffset index in <code>dst</code> of the first byte read
+     * @param length number of bytes to read
+     * @throws IOException if the image cannot be read
+     */
+    private void readChannel(long offset, byte[] dst, int dstOffset, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.wrap(dst, dstOffset, length);
+        while (buf.hasRemaining() && channel.read(buf, offset + buf.position() - dstOffset) >= 0)
+        {
+            //until the buffer is full or the image ends
+        }
+    }
+
+    /**
+     * Reads file data that starts part way into <code>startBlock</code> and runs on through the physically following blocks.
+     * Blocks fetched by read-ahead are copied from the read-ahead pool, which then lets them go once they have been read to the end, and each stretch of other blocks is read with a single request
+     * @param startBlock first block holding the data
+     * @param inBlock offset of the data within <code>startBlock</code>
+     * @param dst array to read into
+     * @param dstOffset index in <code>dst</code> of the first byte read
+     * @param length number of bytes to read
+     */
+    public void readBlocks(int startBlock, int inBlock, byte[] dst, int dstOffset, int length)
+    {
+        if (mode == IoMode.MAPPED || readAheadMax == 0)
+        {
+            readBytes(getBlockPosition(startBlock) + inBlock, dst, dstOffset, length);
+            return;
+        }
+        BlockCache cache = readAheadCache;
+        long pendingPos = 0;
+        int pendingOffset = 0;
+        int pendingLength = 0;
+        int done = 0;
+        for (int block = startBlock; done < length; block++)
+        {
+            int n = Math.min(blockSize - inBlock, length - done);
+            byte[] cached = cache.peek(block);
+            if (cached == null)
+            {
+                if (pendingLength == 0)
+                {
+                    pendingPos = getBlockPosition(block) + inBlock;
+                    pendingOffset = dstOffset + done;
+                }
+                pendingLength += n;
+            }
+            else
+            {
+                if (pendingLength > 0)
+                {
+                    readBytes(pendingPos, dst, pendingOffset, pendingLength);
+                    pendingLength = 0;
+                }
+                System.arraycopy(cached, inBlock, dst, dstOffset + done, n);
+                readAheadHits.increment();
+                if (inBlock + n == blockSize)
+                {
+                    cache.remove(block); //a sequential reader is past it, so make room for the blocks ahead
+                }
+            }
+            done += n;
+            inBlock = 0;
+        }
+        if (pendingLength > 0)
+        {
+            readBytes(pendingPos, dst, pendingOffset, pendingLength);
+        }
+    }
+
+    /**
+     * Starts reading a run of physically contiguous blocks in the background, so that a later read finds them in memory.
+     * In <code>IoMode.RANDOM_ACCESS</code> the run is read with one request and its blocks added to the read-ahead pool, a bounded cache of its own,
+     * so file data read ahead never evicts metadata from the block cache; when mapped, its pages are loaded into memory
+     * @param startBlock first block of the run
+     * @param count number of blocks in the run
+     */
+    public void prefetch(int startBlock, int count)
+    {
+        if (closed)
+        {
+            return;
+        }
+        prefetchRequests.increment();
+        submitIo(() ->
+        {
+            long position = getBlockPosition(startBlock);
+            if (mode == IoMode.MAPPED)
+            {
+                int chunk = (int)(position >>> MAP_CHUNK_SHIFT);
+                int start = (int)(position - ((long)chunk << MAP_CHUNK_SHIFT));
+                if (chunk < chunks.length)
+                {
+                    chunks[chunk].slice(start, Math.min(count * blockSize, chunks[chunk].limit() - start)).load();
+                }
+            }
+            else
+            {
+                byte[] run = new byte[count * blockSize];
+                long start = ReadMetrics.start();
+                ReadMetrics.countRead(position, run.length, blockSize);
+                try
+                {
+                    readChannel(position, run, 0, run.length);
+                }
+                catch (IOException e)
+                {
+                    return; //read-ahead is only a hint; the read that needs these blocks reports the failure
+                }
+                ReadMetrics.record(ReadMetrics.Op.VOLUME_READ, start);
+                BlockCache cache = readAheadCache;
+                for (int i = 0; i < count; i++)
+                {
+                    cache.put(startBlock + i, Arrays.copyOfRange(run, i * blockSize, (i + 1) * blockSize));
+                }
+            }
+            prefetchedBlocks.add(count);
+        });
+    }
+
+    /**
+     * Reads a batch of blocks in the background. Block numbers are sorted and adjacent ones coalesced, so each run of consecutive blocks is fetched with a single read,
+     * and at most a fixed number of reads are in flight on the volume at once, the rest waiting their turn.
+     * In <code>IoMode.RANDOM_ACCESS</code> blocks already in the block cache are not read again. Block 0 stands for a hole and reads as zeros
+     * @param blockNums blocks to read, in any order and possibly repeated
+     * @return a future completing with read only, little endian buffers over the blocks, in the order they were asked for, or exceptionally
+     * with an <code>UncheckedIOException</code> if the image cannot be read, or an <code>IllegalStateException</code> if the volume is closed
+     */
+    public CompletableFuture<ByteBuffer[]> getBlocksAsync(int[] blockNums)
+    {
+        if (closed)
+        {
+            return CompletableFuture.failedFuture(new IllegalStateException("Volume is closed"));
+        }
+        ByteBuffer[] result = new ByteBuffer[blockNums.length];
+        long[] order = new long[blockNums.length];
+        int pending = 0;
+        BlockCache cache = blockCache;
+        for (int i = 0; i < blockNums.length; i++)
+        {
+            byte[] cached = (mode == IoMode.MAPPED || blockNums[i] == 0 ? null : cache.peek(blockNums[i]));
+            if (blockNums[i] == 0)
+            {
+                result[i] = ByteBuffer.allocate(blockSize).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            else if (cached != null)
+            {
+                result[i] = ByteBuffer.wrap(cached).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            else
+            {
+                order[pending++] = Integer.toUnsignedLong(blockNums[i]) << 31 | i; //sort by block, remembering where each goes
+            }
+        }
+        Arrays.sort(order, 0, pending);
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+        int from = 0;
+        while (from < pending)
+        {
+            long first = order[from] >>> 31;
+            int to = from + 1;
+            while (to < pending && (order[to] >>> 31) - first < MAX_RUN_BLOCKS && (order[to] >>> 31) - (order[to - 1] >>> 31) <= 1)
+            {
+                to++;
+            }
+            int runFrom = from;
+            int runTo = to;
+            CompletableFuture<Void> run = new CompletableFuture<>();
+            submitIo(() ->
+            {
+                try
+                {
+                    readRun(order, runFrom, runTo, result);
+                    run.complete(null);
+                }
+                catch (RuntimeException e)
+                {
+                    run.completeExceptionally(e);
+                }
+            });
+            runs.add(run);
+            from = to;
+        }
+        return CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0])).thenApply(v -> result);
+    }
+
+    /**
+     * Reads one coalesced run of <code>getBlocksAsync</code> and hands out a buffer over each of its blocks
+     * @param order sorted entries, each a block number shifted left 31 bits above the index it was asked for at
+     * @param from index in <code>order</code> of the first entry of the run
+     * @param to index in <code>order</code> just after the last entry of the run
+     * @param result array to place the buffers in
+     * @throws UncheckedIOException if the image cannot be read
+     */
+    private void readRun(long[] order, int from, int to, ByteBuffer[] result)
+    {
+        long first = order[from] >>> 31;
+        int count = (int)((order[to - 1] >>> 31) - first + 1);
+        ByteBuffer run;
+        if (mode == IoMode.MAPPED)
+        {
+            run = getBuffer(first * blockSize, count * blockSize);
+            if (run instanceof MappedByteBuffer)
+            {
+                ((MappedByteBuffer)run).load();
+            }
+        }
+        else
+        {
+            byte[] data = new byte[count * blockSize];
+            long start = ReadMetrics.start();
+            ReadMetrics.countRead(first * blockSize, data.length, blockSize);
+            try
+            {
+                readChannel(first * blockSize, data, 0, data.length); //unlike readBytes, a failure must reach the future rather than leave zeros
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            ReadMetrics.record(ReadMetrics.Op.VOLUME_READ, start);
+            run = ByteBuffer.wrap(data);
+        }
+        for (int k = from; k < to; k++)
+        {
+            int start = (int)((order[k] >>> 31) - first) * blockSize;
+            result[(int)(order[k] & 0x7fffffff)] = run.slice(start, blockSize).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Queues a background read, starting it straight away unless the most reads allowed are already in flight
+     * @param task the read
+     */
+    private void submitIo(Runnable task)
+    {
+        pendingIo.add(task);
+        dispatchIo();
+    }
+
+    /**
+     * Starts queued reads until the queue is empty or the in-flight limit is reached. Each read calls this again as it finishes
+     */
+    private void dispatchIo()
+    {
+        while (!pendingIo.isEmpty())
+        {
+            int running = inFlight.get();
+            if (running >= MAX_IN_FLIGHT)
+            {
+                return;
+            }
+            if (!inFlight.compareAndSet(running, running + 1))
+            {
+                continue;
+            }
+            Runnable task = pendingIo.poll();
+            if (task == null)
+            {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            Runnable run = () ->
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    inFlight.decrementAndGet();
+                    dispatchIo();
+                    if (closed)
+                    {
+                        synchronized (Volume.this)
+                        {
+                            Volume.this.notifyAll(); //close may be waiting for the last read
+                        }
+                    }
+                }
+            };
+            try
+            {
+                getIoExecutor().execute(run);
+            }
+            catch (RejectedExecutionException e)
+            {
+                //queued just as the volume closed: run it on this thread instead, so that its future still completes, exceptionally once the channel is closed
+                inFlight.decrementAndGet();
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Returns the executor background I/O runs on, creating it on first use. Its threads are daemons so they never keep the JVM alive
+     * @return the executor
+     * @throws RejectedExecutionException if the volume closed before any background I/O was asked for
+     */
+    private synchronized ExecutorService getIoExecutor()
+    {
+        if (ioExecutor == null)
+        {
+            if (closed)
+            {
+                throw new RejectedExecutionException("Volume is closed");
+            }
+            ioExecutor = Executors.newFixedThreadPool(IO_THREADS, r ->
+            {
+                Thread t = new Thread(r, "volume-io");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * Transfers <code>count</code> bytes of this Volume's file data, starting at <code>offset</code>, directly to a channel without copying them through the heap
+     * @param offset number of bytes from the start of the file from which to transfer
+     * @param count number of bytes to transfer
+     * @param target channel to write to, at its current position
+     * @return the number of bytes transferred, fewer than <code>count</code> only if the image ends first
+     * @throws IOException if the image cannot be read or the target written
+     */
+    public long transferTo(long offset, long count, WritableByteChannel target) throws IOException
+    {
+        long done = 0;
+        while (done < count)
+        {
+            long n = channel.transferTo(offset + done, count - done, target);
+            if (n <= 0)
+            {
+                break;
+            }
+            done += n;
+        }
+        return done;
+    }
+
+    /**
+     * Returns a little endian buffer over <code>length</code> bytes of this Volume's file data, starting at <code>offset</code>.
+     * When mapped, the buffer is a read-only view of the mapping and no data is copied
+     * @param offset number of bytes from the start of the file from which to read
+     * @param length number of bytes to read beyond the offset
+     * @return buffer positioned at 0 with a limit of <code>length</code>
+     */
+    private ByteBuffer getBuffer(long offset, int length)
+    {
+        if (mode == IoMode.MAPPED)
+        {
+            int chunk = (int)(offset >>> MAP_CHUNK_SHIFT);
+            int start = (int)(offset - ((long)chunk << MAP_CHUNK_SHIFT));
+            if (chunk < chunks.length && start + length <= chunks[chunk].limit())
+            {
+                ReadMetrics.countRead(offset, length, blockSize); //a slice copies nothing, but still counts as a read of the image, as readBytes does
+                return chunks[chunk].slice(start, length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        return ByteBuffer.wrap(getBytes(offset, length)).order(ByteOrder.LITTLE_ENDIAN); //unmapped, or straddling two chunks
+    }
+
+    /**
+     * Copies mapped image data starting at <code>offset</code> into <code>dst</code>, moving across chunk boundaries as needed.
+     * Anything past the end of the image is left untouched, as a short read would
+     * @param offset number of bytes from the start of the file from which to read
+     * @param dst array to copy into
+     * @param dstOffset index in <code>dst</code> of the first byte copied
+     * @param length number of bytes to copy
+     */
+    private void copyMapped(long offset, byte[] dst, int dstOffset, int length)
+    {
+        int done = 0;
+        while (done < length)
+        {
+            int chunk = (int)(offset >>> MAP_CHUNK_SHIFT);
+            if (chunk >= chunks.length)
+            {
+                break;
+            }
+            int start = (int)(offset - ((long)chunk << MAP_CHUNK_SHIFT));
+            int n = Math.min(length - done, chunks[chunk].limit() - start);
+            chunks[chunk].get(start, dst, dstOffset + done, n);
+            done += n;
+            offset += n;
+        }
+    }
+
+    /**
+     * Returns the data of a whole block through the block cache, reading it from the image on a miss.
+     * The returned array is shared with the cache and must not be modified
+     * @param blockNum block number to return
+     * @return the block data
+     */
+    private byte[] readBlock(int blockNum)
+    {
+        BlockCache cache = blockCache;
+        byte[] data = cache.get(blockNum);
+        ReadMetrics.countBlockCache(data != null);
+        if (data == null)
+        {
+            data = getBytes(getBlockPosition(blockNum), blockSize);
+            cache.put(blockNum, data);
+        }
         return data;
     }
 
@@ -91,7 +760,11 @@ public class Volume
      */
     public byte[] getBlock(int blockNum)
     {
-        return getBytes(blockNum * blockSize, blockSize);
+        if (mode == IoMode.MAPPED)
+        {
+            return getBytes(getBlockPosition(blockNum), blockSize);
+        }
+        return readBlock(blockNum).clone();
     }
 
     /**
@@ -103,12 +776,200 @@ public class Volume
      */
     public byte[] getBlock(int blockNum, int offset, int length)
     {
-        if (offset >= blockSize)
+        long start = blockOffset(blockNum, offset);
+        int inBlock = (int)(start % blockSize);
+        if (mode == IoMode.MAPPED || inBlock + length > blockSize)
         {
-            blockNum += offset / blockSize;
-            offset = offset % blockSize;
+            return getBytes(start, length);
         }
-        return getBytes((blockNum * blockSize) + offset, length);
+        return Arrays.copyOfRange(readBlock((int)(start / blockSize)), inBlock, inBlock + length);
+    }
+
+    /**
+     * Returns a little endian, read-only buffer over a whole block in this volume. In <code>IoMode.MAPPED</code> this is a slice of the mapping,
+     * otherwise it is a view of the cached block
+     * @param blockNum block number to return
+     * @return buffer over the block data
+     */
+    public ByteBuffer getBlockBuffer(int blockNum)
+    {
+        if (mode == IoMode.MAPPED)
+        {
+            return getBuffer(getBlockPosition(blockNum), blockSize);
+        }
+        return ByteBuffer.wrap(readBlock(blockNum)).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns a little endian, read-only buffer over a part of a block in this volume. In <code>IoMode.MAPPED</code> this is a slice of the mapping,
+     * otherwise it is a view of the cached block
+     * @param blockNum block number to return from
+     * @param offset offset from start of block to return data from
+     * @param length length of data set to return
+     * @return buffer over the portion of block data
+     */
+    public ByteBuffer getBlockBuffer(int blockNum, int offset, int length)
+    {
+        long start = blockOffset(blockNum, offset);
+        int inBlock = (int)(start % blockSize);
+        if (mode == IoMode.MAPPED || inBlock + length > blockSize)
+        {
+            return getBuffer(start, length);
+        }
+        return ByteBuffer.wrap(readBlock((int)(start / blockSize)), inBlock, length).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Converts a block number and an offset within it, which may run past the end of the block, into an absolute byte offset
+     * @param blockNum block number
+     * @param offset offset from start of block
+     * @return offset from the start of the image
+     */
+    private long blockOffset(int blockNum, int offset)
+    {
+        return getBlockPosition(blockNum) + offset;
+    }
+
+    /**
+     * Returns the position of a block in the image. Block numbers are unsigned 32 bit values, so those of 2^31 and above are negative as an <code>int</code>
+     * @param blockNum block number
+     * @return number of bytes from the start of the image to the block
+     */
+    public long getBlockPosition(int blockNum)
+    {
+        return Integer.toUnsignedLong(blockNum) * blockSize;
+    }
+
+    /**
+     * Replaces this volume's block cache with an empty one of the given size. A capacity of 0 disables caching.
+     * The cache only sits in front of <code>IoMode.RANDOM_ACCESS</code> reads, as a mapped image is already served from memory
+     * @param capacity maximum number of blocks to cache
+     */
+    public void setBlockCacheCapacity(int capacity)
+    {
+        blockCache = new BlockCache(capacity);
+    }
+
+    /**
+     * Returns this volume's block cache, through which its hit, miss and eviction counts can be read
+     * @return the block cache
+     */
+    public BlockCache getBlockCache()
+    {
+        return blockCache;
+    }
+
+    /**
+     * Replaces this volume's inode cache with an empty one of the given size. A capacity of 0 disables caching
+     * @param capacity maximum number of inodes to cache
+     */
+    public void setInodeCacheCapacity(int capacity)
+    {
+        inodeCache = new InodeCache(capacity);
+    }
+
+    /**
+     * Returns this volume's inode cache, through which its hit rate can be read
+     * @return the inode cache
+     */
+    public InodeCache getInodeCache()
+    {
+        return inodeCache;
+    }
+
+    /**
+     * Replaces this volume's directory lookup cache with an empty one of the given size. A capacity of 0 disables caching
+     * @param capacity maximum number of paths, and of names, to cache
+     */
+    public void setDentryCacheCapacity(int capacity)
+    {
+        dentryCache = new DentryCache(capacity);
+    }
+
+    /**
+     * Returns this volume's directory lookup cache, shared by every <code>Directory</code> opened on it
+     * @return the directory lookup cache
+     */
+    public DentryCache getDentryCache()
+    {
+        return dentryCache;
+    }
+
+    /**
+     * Sets the bounds of the read-ahead window files opened on this volume use. A file's window starts at <code>minBlocks</code> when it is first read sequentially,
+     * doubles with each further sequential read up to <code>maxBlocks</code>, and halves on each random read. A <code>maxBlocks</code> of 0 disables read-ahead.
+     * The read-ahead pool is replaced with an empty one sized to two of the largest windows
+     * @param minBlocks initial window, in blocks
+     * @param maxBlocks largest window, in blocks
+     */
+    public void setReadAhead(int minBlocks, int maxBlocks)
+    {
+        readAheadMin = Math.min(minBlocks, maxBlocks);
+        readAheadMax = maxBlocks;
+        readAheadCache = new BlockCache(READ_AHEAD_WINDOWS * maxBlocks);
+    }
+
+    /**
+     * Returns the pool holding blocks read ahead until file reads reach them, kept apart from the block cache so that bulk file data cannot evict metadata
+     * @return the read-ahead pool
+     */
+    public BlockCache getReadAheadCache()
+    {
+        return readAheadCache;
+    }
+
+    /**
+     * Returns the initial read-ahead window, in blocks
+     * @return the initial window
+     */
+    public int getReadAheadMin()
+    {
+        return readAheadMin;
+    }
+
+    /**
+     * Returns the largest read-ahead window, in blocks, 0 if read-ahead is disabled
+     * @return the largest window
+     */
+    public int getReadAheadMax()
+    {
+        return readAheadMax;
+    }
+
+    /**
+     * Returns the number of read-ahead runs requested through <code>prefetch</code>
+     * @return the number of requests
+     */
+    public long getPrefetchRequests()
+    {
+        return prefetchRequests.sum();
+    }
+
+    /**
+     * Returns the number of blocks read ahead so far
+     * @return the number of blocks
+     */
+    public long getPrefetchedBlocks()
+    {
+        return prefetchedBlocks.sum();
+    }
+
+    /**
+     * Returns the number of blocks file reads found already in the read-ahead pool, in <code>IoMode.RANDOM_ACCESS</code>
+     * @return the number of blocks
+     */
+    public long getReadAheadHits()
+    {
+        return readAheadHits.sum();
+    }
+
+    /**
+     * Returns the I/O mode this volume is actually using
+     * @return the I/O mode
+     */
+    public IoMode getIoMode()
+    {
+        return mode;
     }
 
     /**
@@ -129,6 +990,35 @@ public class Volume
         return blockSize;
     }
 
+    /**
+     * Closes the image. Background reads already asked for are finished first, so none of them fails on a closed channel and every
+     * <code>getBlocksAsync</code> future completes. From then on read-ahead is ignored and <code>getBlocksAsync</code> fails. The volume must not be used otherwise afterwards
+     * @throws IOException if the image cannot be closed
+     */
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            closed = true;
+            try
+            {
+                while (inFlight.get() > 0 || !pendingIo.isEmpty())
+                {
+                    wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (ioExecutor != null)
+            {
+                ioExecutor.shutdown();
+            }
+        }
+        channel.close();
+    }
+
     /**
      * Returns a string representation of this Volume
      * @return the string
@@ -0,0 +1,188 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the read paths of the reader: inode lookup, directory listing, path resolution and sequential and random file reads.
+ * Each image given with <code>-p image=...</code> is walked once per fork to pick its targets, the smallest, median and largest directories,
+ * the deepest directory and the largest file, so the same benchmarks run against images of any block size. Every benchmark returns what it read,
+ * so JMH consumes it and the work cannot be eliminated.
+ * <p>
+ * Usage: <code>gradle jmh -Pjmh="-p image=img-1k,img-2k,img-4k -rf json -rff results.json"</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class Benchmarks
+{
+    private static final int SEQUENTIAL_CHUNK = 64 * 1024;
+    private static final int RANDOM_READ = 4096;
+
+    /**
+     * The image under test, opened and walked once per trial
+     */
+    @State(Scope.Benchmark)
+    public static class Image
+    {
+        @Param("res/ext2fs")
+        public String image;
+
+        ImageTarget target;
+
+        @Setup(Level.Trial)
+        public void open() throws ReflectiveOperationException
+        {
+            target = ImageTarget.open(image);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException
+        {
+            target.close();
+        }
+    }
+
+    /**
+     * Random choices of each benchmark thread, seeded the same in every fork
+     */
+    @State(Scope.Thread)
+    public static class Picker
+    {
+        final Random random = new Random(42);
+    }
+
+    /**
+     * Empties the inode cache before each call of a benchmark, outside the time measured
+     */
+    @State(Scope.Thread)
+    public static class ColdInodeCache
+    {
+        @Setup(Level.Invocation)
+        public void clear(Image image)
+        {
+            image.target.clearInodeCache();
+        }
+    }
+
+    /**
+     * Empties the dentry cache before each call of a benchmark, outside the time measured
+     */
+    @State(Scope.Thread)
+    public static class ColdDentryCache
+    {
+        @Setup(Level.Invocation)
+        public void clear(Image image)
+        {
+            image.target.clearDentryCache();
+        }
+    }
+
+    /**
+     * The directory to list, by its rank in number of entries
+     */
+    @State(Scope.Benchmark)
+    public static class DirectorySize
+    {
+        @Param({"smallest", "median", "largest"})
+        public String directory;
+
+        int rank;
+
+        @Setup(Level.Trial)
+        public void pick(Image image)
+        {
+            int count = image.target.directoryCount();
+            rank = (directory.equals("smallest") ? 0 : directory.equals("median") ? count / 2 : count - 1);
+        }
+    }
+
+    /**
+     * The depth to resolve, clamped to the depth of the deepest directory in the image
+     */
+    @State(Scope.Benchmark)
+    public static class PathDepth
+    {
+        @Param({"1", "2", "3"})
+        public int depth;
+
+        int resolved;
+
+        @Setup(Level.Trial)
+        public void pick(Image image)
+        {
+            resolved = Math.max(1, Math.min(depth, image.target.maxDepth()));
+        }
+    }
+
+    /**
+     * The largest file in the image, open with its own read position in each benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class LargestFile
+    {
+        FileTarget file;
+
+        @Setup(Level.Trial)
+        public void open(Image image)
+        {
+            file = image.target.openLargestFile();
+            if (file == null)
+            {
+                throw new IllegalStateException(image.image + " holds no regular files");
+            }
+        }
+    }
+
+    @Benchmark
+    public int inodeLookupCached(Image image, Picker picker)
+    {
+        return image.target.lookupInode(picker.random.nextInt(image.target.inodeCount()));
+    }
+
+    @Benchmark
+    public int inodeLookupCold(Image image, Picker picker, ColdInodeCache cold)
+    {
+        return image.target.lookupInode(picker.random.nextInt(image.target.inodeCount()));
+    }
+
+    @Benchmark
+    public Object directoryList(Image image, DirectorySize dir)
+    {
+        return image.target.listDirectory(dir.rank);
+    }
+
+    @Benchmark
+    public Object pathResolve(Image image, PathDepth path, ColdDentryCache cold)
+    {
+        return image.target.resolvePath(path.resolved);
+    }
+
+    @Benchmark
+    public byte[] fileReadSequential(LargestFile largest)
+    {
+        return largest.file.readSequential(SEQUENTIAL_CHUNK);
+    }
+
+    @Benchmark
+    public byte[] fileReadRandom(LargestFile largest, Picker picker)
+    {
+        return largest.file.read((long)(picker.random.nextDouble() * Math.max(1, largest.file.size() - RANDOM_READ)), RANDOM_READ);
+    }
+}
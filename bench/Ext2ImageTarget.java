@@ -0,0 +1,207 @@
+import bench.FileTarget;
+import bench.ImageTarget;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The benchmark targets of an open image: every inode number, every directory ranked by its number of entries, the deepest directory and the largest file.
+ * The whole tree is walked once when the image is opened, so the same benchmarks run against images of any block size
+ */
+public class Ext2ImageTarget implements ImageTarget
+{
+    private final Volume vol;
+    private final int[] inodeNums;
+    private final DirTarget[] dirs;
+    private final String[] deepest;
+    private final FileInfo largest;
+
+    /**
+     * A directory found while walking an image
+     */
+    private static class DirTarget
+    {
+        final String path;
+        final int inodeNum;
+        final int depth;
+        final int entries;
+
+        DirTarget(String path, int inodeNum, int depth, int entries)
+        {
+            this.path = path;
+            this.inodeNum = inodeNum;
+            this.depth = depth;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Opens an image and walks its whole tree
+     * @param image path of the image
+     */
+    public Ext2ImageTarget(String image)
+    {
+        vol = new Volume(image);
+        List<DirTarget> dirList = new ArrayList<>();
+        List<Integer> inodeList = new ArrayList<>();
+        largest = walk(vol, dirList, inodeList);
+        inodeNums = inodeList.stream().mapToInt(Integer::intValue).toArray();
+        dirs = dirList.toArray(new DirTarget[0]);
+        Arrays.sort(dirs, Comparator.comparingInt(d -> d.entries));
+        deepest = Arrays.stream(dirs).max(Comparator.comparingInt(d -> d.depth)).get().path.split("/");
+    }
+
+    /**
+     * Walks the whole tree of an image, recording every directory and inode number
+     * @param vol volume to walk
+     * @param dirs list to add each directory to
+     * @param inodeNums list to add each inode number to
+     * @return the entry of the largest regular file, or <code>null</code> if there are none
+     */
+    private static FileInfo walk(Volume vol, List<DirTarget> dirs, List<Integer> inodeNums)
+    {
+        FileInfo largest = null;
+        long largestSize = -1;
+        List<DirTarget> pending = new ArrayList<>();
+        pending.add(new DirTarget(vol.getLabel(), 2, 0, 0));
+        while (!pending.isEmpty())
+        {
+            DirTarget next = pending.remove(pending.size() - 1);
+            FileInfo[] files = new Directory(vol, next.path, next.inodeNum).getFileInfo();
+            dirs.add(new DirTarget(next.path, next.inodeNum, next.depth, files.length));
+            for (FileInfo fi : files)
+            {
+                String name = fi.getName();
+                if (name.equals(".") || name.equals(".."))
+                {
+                    continue;
+                }
+                inodeNums.add(fi.getInodeNum());
+                if (fi.getFileType() == FileInfo.TYPE_DIRECTORY)
+                {
+                    pending.add(new DirTarget(next.path + "/" + name, fi.getInodeNum(), next.depth + 1, 0));
+                }
+                else if (fi.getFileType() == FileInfo.TYPE_FILE)
+                {
+                    long size = vol.getInode(fi.getInodeNum()).getSize();
+                    if (size > largestSize)
+                    {
+                        largest = fi;
+                        largestSize = size;
+                    }
+                }
+            }
+        }
+        return largest;
+    }
+
+    @Override
+    public int blockSize()
+    {
+        return vol.getBlockSize();
+    }
+
+    @Override
+    public int inodeCount()
+    {
+        return inodeNums.length;
+    }
+
+    @Override
+    public int lookupInode(int index)
+    {
+        return vol.getInode(inodeNums[index]).getMode();
+    }
+
+    @Override
+    public void clearInodeCache()
+    {
+        vol.getInodeCache().clear();
+    }
+
+    @Override
+    public int directoryCount()
+    {
+        return dirs.length;
+    }
+
+    @Override
+    public int directoryEntries(int rank)
+    {
+        return dirs[rank].entries;
+    }
+
+    @Override
+    public Object listDirectory(int rank)
+    {
+        return new Directory(vol, dirs[rank].path, dirs[rank].inodeNum).getFileInfo();
+    }
+
+    @Override
+    public int maxDepth()
+    {
+        return deepest.length - 1;
+    }
+
+    @Override
+    public Object resolvePath(int depth)
+    {
+        String path = vol.getLabel() + "/" + String.join("/", Arrays.copyOfRange(deepest, 1, depth + 1));
+        try
+        {
+            return new Directory(vol, path, "").getFileInfo();
+        }
+        catch (NoSuchDirectoryException | RootReachedException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void clearDentryCache()
+    {
+        vol.getDentryCache().clear();
+    }
+
+    @Override
+    public FileTarget openLargestFile()
+    {
+        if (largest == null)
+        {
+            return null;
+        }
+        Ext2File file = new Ext2File(vol, largest);
+        return new FileTarget()
+        {
+            @Override
+            public long size()
+            {
+                return file.size();
+            }
+
+            @Override
+            public byte[] readSequential(int length)
+            {
+                if (file.position() >= file.size())
+                {
+                    file.seek(0);
+                }
+                return file.read(length);
+            }
+
+            @Override
+            public byte[] read(long position, int length)
+            {
+                return file.read(position, length);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        vol.close();
+    }
+}
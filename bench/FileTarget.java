@@ -0,0 +1,28 @@
+package bench;
+
+/**
+ * An open file of an {@link ImageTarget}, with its own read position, so it must be confined to one thread
+ */
+public interface FileTarget
+{
+    /**
+     * Returns the size of the file in bytes
+     * @return the size
+     */
+    long size();
+
+    /**
+     * Reads the next bytes of the file, going back to the start once the end is reached
+     * @param length maximum number of bytes to read
+     * @return the bytes read
+     */
+    byte[] readSequential(int length);
+
+    /**
+     * Reads bytes from a given position
+     * @param position first byte to read
+     * @param length maximum number of bytes to read
+     * @return the bytes read
+     */
+    byte[] read(long position, int length);
+}
@@ -0,0 +1,729 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes synthetic ext2 images for testing and benchmarking at scale, in pure Java, with no need for <code>mke2fs</code> or root privileges.
+ * The tree is a directory hierarchy of configurable fan-out and depth with a number of files in every directory, their sizes drawn log-uniformly
+ * between a minimum and a maximum, some of them sparse, plus any number of extra large files in the root to reach double and triple indirection.
+ * Block size, group count and inodes per group can be set or left to be sized from the tree, and a fragmentation level scatters data blocks across the volume.
+ * Everything is derived from a seed, so the same options always give the same image, and the image is written sparsely, so multi-GB volumes cost only their data.
+ * <p>
+ * The images are revision 1 ext2 with 128 byte inodes, the <code>filetype</code> feature, <code>large_file</code> when needed, and a superblock and
+ * descriptor table backup in every group. A file's byte at each offset is given by {@link #expectedByte(int, long)}, and holes read as zeros.
+ * Sparse files are named <code>sparse-N.dat</code>, the rest <code>file-N.dat</code>, and {@link #isHole(int, long, double)} says which blocks of a sparse file are holes,
+ * so a reader's output can be checked without reading the image any other way.
+ * <p>
+ * Usage: <code>java -cp build ImageGenerator -o image [-b blockSize] [-g groups] [-ipg inodesPerGroup] [-fanout n] [-depth n] [-files n]
+ * [-min size] [-max size] [-sparse fraction] [-frag fraction] [-big size]... [-bigholes fraction] [-label name] [-seed n]</code>. Sizes take a K, M or G suffix.
+ * <code>-bigholes</code> leaves that fraction of the big files as holes, so that tests can have files and volumes past 4 GiB that cost only megabytes
+ */
+public class ImageGenerator
+{
+    private int blockSize = 1024;
+    private int groups;             //0 to size from the tree
+    private int inodesPerGroup;     //0 to size from the tree
+    private int fanout = 4;
+    private int depth = 2;
+    private int filesPerDir = 16;
+    private long minSize = 0;
+    private long maxSize = 64 * 1024;
+    private double sparse = 0.1;
+    private double fragmentation = 0;
+    private final List<Long> bigFiles = new ArrayList<>();
+    private double bigHoles = 0;
+    private String label = "synthetic";
+    private long seed = 1;
+
+    private Random random;
+    private FileChannel channel;
+    private int firstDataBlock;
+    private int blocksPerGroup;
+    private int pointersPerBlock;
+    private int gdtBlocks;
+    private int inodeTableBlocks;
+    private long totalBlocks;
+    private BitSet blockBitmap;
+    private BitSet inodeBitmap;
+    private int[] usedDirs;
+    private boolean largeFiles;
+    private int nextDirGroup;
+    private long filesWritten;
+    private long bytesWritten;
+
+    private static final int INODE_SIZE = 128;
+    private static final int FIRST_INODE = 11;
+    private static final int ROOT_INODE = 2;
+    private static final int LOST_FOUND_INODE = 11;
+    private static final int DIR_MODE = 0x41ed;         //drwxr-xr-x
+    private static final int LOST_FOUND_MODE = 0x41c0;  //drwx------
+    private static final int FILE_MODE = 0x81a4;        //-rw-r--r--
+    private static final int TIME = 1600000000;
+    private static final int SPARSE_CHUNK = 8;          //blocks allocated or left as a hole together in sparse files
+    static final double SPARSE_HOLES = 0.5;             //fraction of the chunks of a sparse file left as holes
+    private static final int RUN_BUFFER = 1 << 20;
+
+    /**
+     * A directory or file of the planned tree
+     */
+    private static class Node
+    {
+        final String name;
+        final boolean dir;
+        final long size;
+        final double holes;     //fraction of chunks left as holes, 0 for a dense file
+        final Node parent;
+        final List<Node> children = new ArrayList<>();
+        int inodeNum;
+        int group;
+
+        Node(String name, boolean dir, long size, double holes, Node parent)
+        {
+            this.name = name;
+            this.dir = dir;
+            this.size = size;
+            this.holes = holes;
+            this.parent = parent;
+            if (parent != null)
+            {
+                parent.children.add(this);
+            }
+        }
+    }
+
+    /**
+     * The block pointers of an inode being written, with the indirect blocks allocated for it so far
+     */
+    private class Layout
+    {
+        final int[] pointers = new int[15];
+        final Map<Integer, int[]> indirect = new HashMap<>();
+        long sectors;
+        int goal;
+
+        Layout(int goal)
+        {
+            this.goal = goal;
+        }
+
+        /**
+         * Allocates a block for a logical block of the inode, with any indirect blocks it needs first
+         * @param logical the logical block
+         * @param jump whether to allocate away from the previous block, to fragment the inode
+         * @return the physical block
+         */
+        int allocate(long logical, boolean jump)
+        {
+            if (jump)
+            {
+                goal = firstDataBlock + (int)(random.nextDouble() * (totalBlocks - firstDataBlock));
+            }
+            int[] holder = pointers;
+            int index;
+            long p = pointersPerBlock;
+            if (logical < 12)
+            {
+                index = (int)logical;
+            }
+            else if ((logical -= 12) < p)
+            {
+                holder = table(pointers, 12);
+                index = (int)logical;
+            }
+            else if ((logical -= p) < p * p)
+            {
+                holder = table(table(pointers, 13), (int)(logical / p));
+                index = (int)(logical % p);
+            }
+            else
+            {
+                logical -= p * p;
+                holder = table(table(table(pointers, 14), (int)(logical / (p * p))), (int)(logical / p % p));
+                index = (int)(logical % p);
+            }
+            return holder[index] = next();
+        }
+
+        /**
+         * Returns the table of pointers held in the block <code>holder[index]</code> points to, allocating the block if it has none
+         */
+        private int[] table(int[] holder, int index)
+        {
+            if (holder[index] == 0)
+            {
+                holder[index] = next();
+                indirect.put(holder[index], new int[pointersPerBlock]);
+            }
+            return indirect.get(holder[index]);
+        }
+
+        /**
+         * Allocates the next free block from the goal on and counts it against the inode
+         */
+        private int next()
+        {
+            int block = allocateBlock(goal);
+            goal = block + 1;
+            sectors += blockSize / 512;
+            return block;
+        }
+
+        /**
+         * Writes the indirect blocks
+         */
+        void writeIndirect() throws IOException
+        {
+            for (Map.Entry<Integer, int[]> table : indirect.entrySet())
+            {
+                ByteBuffer buf = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+                buf.asIntBuffer().put(table.getValue());
+                write(buf, table.getKey());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        ImageGenerator gen = new ImageGenerator();
+        String output = null;
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                String value = (i + 1 < args.length ? args[i + 1] : "");
+                switch (args[i++])
+                {
+                    case "-o": output = value; break;
+                    case "-b": gen.blockSize = Integer.parseInt(value); break;
+                    case "-g": gen.groups = Integer.parseInt(value); break;
+                    case "-ipg": gen.inodesPerGroup = Integer.parseInt(value); break;
+                    case "-fanout": gen.fanout = Integer.parseInt(value); break;
+                    case "-depth": gen.depth = Integer.parseInt(value); break;
+                    case "-files": gen.filesPerDir = Integer.parseInt(value); break;
+                    case "-min": gen.minSize = parseSize(value); break;
+                    case "-max": gen.maxSize = parseSize(value); break;
+                    case "-sparse": gen.sparse = Double.parseDouble(value); break;
+                    case "-frag": gen.fragmentation = Double.parseDouble(value); break;
+                    case "-big": gen.bigFiles.add(parseSize(value)); break;
+                    case "-bigholes": gen.bigHoles = Double.parseDouble(value); break;
+                    case "-label": gen.label = value; break;
+                    case "-seed": gen.seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + args[i - 1]);
+                }
+            }
+            if (output == null || (gen.blockSize != 1024 && gen.blockSize != 2048 && gen.blockSize != 4096))
+            {
+                throw new IllegalArgumentException("an output file and a block size of 1024, 2048 or 4096 are required");
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println(e.getMessage());
+            System.out.println("usage: ImageGenerator -o image [-b blockSize] [-g groups] [-ipg inodesPerGroup] [-fanout n] [-depth n] [-files n] "
+                    + "[-min size] [-max size] [-sparse fraction] [-frag fraction] [-big size]... [-bigholes fraction] [-label name] [-seed n]");
+            return;
+        }
+        long start = System.nanoTime();
+        gen.generate(output);
+        System.out.printf("%s: %d byte blocks, %d groups, %d inodes per group, %d files, %.1f MB of data in %.1fs%n", output, gen.blockSize, gen.groups,
+                gen.inodesPerGroup, gen.filesWritten, gen.bytesWritten / (1024.0 * 1024.0), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Parses a size in bytes, with an optional K, M or G suffix
+     * @param s the size
+     * @return the size in bytes
+     */
+    private static long parseSize(String s)
+    {
+        String digits = s.toUpperCase();
+        int shift = 0;
+        switch (digits.isEmpty() ? ' ' : digits.charAt(digits.length() - 1))
+        {
+            case 'K': shift = 10; break;
+            case 'M': shift = 20; break;
+            case 'G': shift = 30; break;
+            default: break;
+        }
+        return Long.parseLong(shift == 0 ? digits : digits.substring(0, digits.length() - 1)) << shift;
+    }
+
+    /**
+     * Returns the byte a generated file holds at an offset, unless that offset lies in a hole. Files hold lines of 63 lower case letters, derived from the inode number and offset
+     * @param inodeNum the file's inode number
+     * @param offset offset in the file
+     * @return the byte
+     */
+    public static byte expectedByte(int inodeNum, long offset)
+    {
+        if (offset % 64 == 63)
+        {
+            return '\n';
+        }
+        long h = (inodeNum * 0x9e3779b97f4a7c15L) ^ ((offset >>> 3) * 0xc2b2ae3d27d4eb4fL);
+        h ^= h >>> 29;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 32;
+        return (byte)('a' + ((h >>> ((offset & 7) * 8)) & 0xff) % 26);
+    }
+
+    /**
+     * Returns whether a block of a generated file is a hole. Blocks are left as holes a chunk at a time, each chunk with the file's hole fraction as its probability,
+     * derived from the inode number and chunk rather than drawn from the seed, so that the layout can be known without reading the image
+     * @param inodeNum the file's inode number
+     * @param logical logical block number in the file
+     * @param holes the file's hole fraction: {@link #SPARSE_HOLES} for <code>sparse-N.dat</code> files, the <code>-bigholes</code> fraction for <code>big-N.dat</code>, 0 for the rest
+     * @return whether the block is a hole
+     */
+    public static boolean isHole(int inodeNum, long logical, double holes)
+    {
+        if (holes <= 0)
+        {
+            return false;
+        }
+        long h = (inodeNum * 0xc2b2ae3d27d4eb4fL) ^ ((logical / SPARSE_CHUNK) * 0x9e3779b97f4a7c15L);
+        h ^= h >>> 31;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 29;
+        return (h >>> 11) * 0x1.0p-53 < holes;
+    }
+
+    /**
+     * Plans the tree, sizes the volume to it and writes the image
+     * @param output path of the image, overwritten if it exists
+     * @throws IOException if the image cannot be written
+     */
+    public void generate(String output) throws IOException
+    {
+        random = new Random(seed);
+        List<Node> nodes = new ArrayList<>();
+        Node root = plan(nodes);
+        layOut(nodes);
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw"))
+        {
+            file.setLength(0);
+            file.setLength(totalBlocks * blockSize);
+            channel = file.getChannel();
+            reserveMetadata();
+            allocateInodes(nodes);
+            for (Node node : nodes)
+            {
+                if (node.dir)
+                {
+                    writeDirectory(node);
+                }
+                else
+                {
+                    writeFile(node);
+                }
+            }
+            writeMetadata();
+        }
+    }
+
+    /**
+     * Plans the tree: the root, <code>lost+found</code>, the hierarchy and the big files, in the order they are written
+     * @param nodes list to add every node to, directories before their contents
+     * @return the root
+     */
+    private Node plan(List<Node> nodes)
+    {
+        Node root = new Node("", true, 0, 0, null);
+        nodes.add(root);
+        nodes.add(new Node("lost+found", true, 0, 0, root));
+        for (int i = 0; i < bigFiles.size(); i++)
+        {
+            nodes.add(new Node("big-" + i + ".dat", false, bigFiles.get(i), bigHoles, root));
+        }
+        List<Node> level = new ArrayList<>();
+        level.add(root);
+        for (int d = 0; d <= depth; d++)
+        {
+            List<Node> next = new ArrayList<>();
+            for (Node dir : level)
+            {
+                for (int i = 0; i < filesPerDir; i++)
+                {
+                    double u = random.nextDouble();
+                    long size = (maxSize <= minSize ? minSize : (long)(Math.exp(Math.log(minSize + 1) + u * (Math.log(maxSize + 1) - Math.log(minSize + 1))) - 1));
+                    boolean isSparse = random.nextDouble() < sparse;
+                    nodes.add(new Node(String.format(isSparse ? "sparse-%06d.dat" : "file-%06d.dat", i), false, size, isSparse ? SPARSE_HOLES : 0, dir));
+                }
+                for (int i = 0; d < depth && i < fanout; i++)
+                {
+                    Node sub = new Node("dir-" + i, true, 0, 0, dir);
+                    nodes.add(sub);
+                    next.add(sub);
+                }
+            }
+            level = next;
+        }
+        return root;
+    }
+
+    /**
+     * Chooses the number of groups and inodes per group, where not given, as the fewest that hold the planned tree
+     * @param nodes the planned tree
+     */
+    private void layOut(List<Node> nodes)
+    {
+        firstDataBlock = (blockSize == 1024 ? 1 : 0);
+        blocksPerGroup = 8 * blockSize;
+        pointersPerBlock = blockSize / 4;
+        int inodesPerBlock = blockSize / INODE_SIZE;
+        long dataBlocks = 64;
+        for (Node node : nodes)
+        {
+            long blocks = (node.dir ? (node.children.size() * 24L + 24) / blockSize + 1 : (node.size + blockSize - 1) / blockSize);
+            dataBlocks += blocks + blocks / pointersPerBlock + 3;
+        }
+        long inodes = FIRST_INODE + nodes.size();
+        for (int g = Math.max(1, groups); ; g++)
+        {
+            int ipg = inodesPerGroup;
+            if (ipg == 0)
+            {
+                ipg = (int)Math.min(8L * blockSize, ((inodes * 5 / 4 + g - 1) / g + inodesPerBlock - 1) / inodesPerBlock * inodesPerBlock);
+                ipg = Math.max(ipg, inodesPerBlock);
+            }
+            int gdt = (g * 32 + blockSize - 1) / blockSize;
+            long free = (long)g * (blocksPerGroup - 3 - gdt - ipg * INODE_SIZE / blockSize);
+            if ((long)g * ipg >= inodes && free >= dataBlocks + dataBlocks / 20)
+            {
+                groups = g;
+                inodesPerGroup = ipg;
+                gdtBlocks = gdt;
+                break;
+            }
+            if (g == groups)
+            {
+                throw new IllegalArgumentException(groups + " groups cannot hold the planned tree, of " + inodes + " inodes and about " + dataBlocks + " blocks");
+            }
+        }
+        if (inodesPerGroup % inodesPerBlock != 0 || inodesPerGroup > 8 * blockSize)
+        {
+            throw new IllegalArgumentException("inodes per group must be a multiple of " + inodesPerBlock + " and at most " + 8 * blockSize);
+        }
+        inodeTableBlocks = inodesPerGroup * INODE_SIZE / blockSize;
+        totalBlocks = firstDataBlock + (long)groups * blocksPerGroup;
+        if (totalBlocks > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("volume of " + totalBlocks + " blocks is too large");
+        }
+        blockBitmap = new BitSet((int)Math.min(Integer.MAX_VALUE, totalBlocks));
+        inodeBitmap = new BitSet(groups * inodesPerGroup + 1);
+        usedDirs = new int[groups];
+    }
+
+    /**
+     * Returns the first block of a group, which holds its copy of the superblock
+     */
+    private long groupStart(int group)
+    {
+        return firstDataBlock + (long)group * blocksPerGroup;
+    }
+
+    /**
+     * Marks each group's superblock, descriptor table, bitmaps and inode table as used, and the reserved inodes of the first group
+     */
+    private void reserveMetadata()
+    {
+        for (int g = 0; g < groups; g++)
+        {
+            int start = (int)groupStart(g);
+            blockBitmap.set(start, start + 3 + gdtBlocks + inodeTableBlocks);
+        }
+        if (firstDataBlock == 1)
+        {
+            blockBitmap.set(0);   //boot block, outside every group
+        }
+        inodeBitmap.set(1, FIRST_INODE);
+    }
+
+    /**
+     * Gives every node an inode number. Directories are spread round robin over the groups and files go in the group of their directory, moving on when it is full
+     */
+    private void allocateInodes(List<Node> nodes)
+    {
+        for (Node node : nodes)
+        {
+            if (node.parent == null)
+            {
+                node.inodeNum = ROOT_INODE;
+            }
+            else if (node.name.equals("lost+found") && node.parent.parent == null)
+            {
+                node.inodeNum = LOST_FOUND_INODE;
+                inodeBitmap.set(LOST_FOUND_INODE);
+            }
+            else
+            {
+                int group = (node.dir ? nextDirGroup++ % groups : node.parent.group);
+                for (int tried = 0; ; tried++, group = (group + 1) % groups)
+                {
+                    if (tried == groups)
+                    {
+                        throw new IllegalStateException("out of inodes");
+                    }
+                    int inodeNum = inodeBitmap.nextClearBit(group * inodesPerGroup + 1);
+                    if (inodeNum <= (group + 1) * inodesPerGroup)
+                    {
+                        node.inodeNum = inodeNum;
+                        inodeBitmap.set(inodeNum);
+                        break;
+                    }
+                }
+            }
+            node.group = (node.inodeNum - 1) / inodesPerGroup;
+            if (node.dir)
+            {
+                usedDirs[node.group]++;
+            }
+        }
+    }
+
+    /**
+     * Allocates the first free block at or after the goal, wrapping round to the start of the volume
+     * @param goal block to search from
+     * @return the block
+     */
+    private int allocateBlock(int goal)
+    {
+        int block = blockBitmap.nextClearBit(Math.max(goal, firstDataBlock));
+        if (block >= totalBlocks)
+        {
+            block = blockBitmap.nextClearBit(firstDataBlock);
+            if (block >= totalBlocks)
+            {
+                throw new IllegalStateException("volume full");
+            }
+        }
+        blockBitmap.set(block);
+        return block;
+    }
+
+    /**
+     * Returns the block to start allocating data for an inode from: the first data block of the inode's group
+     */
+    private int dataGoal(Node node)
+    {
+        return (int)groupStart(node.group) + 3 + gdtBlocks + inodeTableBlocks;
+    }
+
+    /**
+     * Writes a directory: its entries, packed into blocks, then its inode
+     */
+    private void writeDirectory(Node dir) throws IOException
+    {
+        List<byte[]> blocks = new ArrayList<>();
+        ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        int last = -1;
+        List<Node> entries = new ArrayList<>();
+        entries.add(dir);
+        entries.add(dir.parent == null ? dir : dir.parent);
+        entries.addAll(dir.children);
+        int subdirs = 0;
+        for (int i = 0; i < entries.size(); i++)
+        {
+            Node entry = entries.get(i);
+            byte[] name = (i == 0 ? "." : i == 1 ? ".." : entry.name).getBytes(StandardCharsets.UTF_8);
+            int length = (8 + name.length + 3) & ~3;
+            if (block.position() + length > blockSize)
+            {
+                block.putShort(last + 4, (short)(blockSize - last));
+                blocks.add(block.array());
+                block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            last = block.position();
+            block.putInt(entry.inodeNum).putShort((short)length).put((byte)name.length).put((byte)(entry.dir ? FileInfo.TYPE_DIRECTORY : FileInfo.TYPE_FILE)).put(name);
+            block.position(last + length);
+            if (i >= 2 && entry.dir)
+            {
+                subdirs++;
+            }
+        }
+        block.putShort(last + 4, (short)(blockSize - last));
+        blocks.add(block.array());
+        Layout layout = new Layout(dataGoal(dir));
+        for (int i = 0; i < blocks.size(); i++)
+        {
+            write(ByteBuffer.wrap(blocks.get(i)), layout.allocate(i, false));
+        }
+        layout.writeIndirect();
+        writeInode(dir.inodeNum, dir.name.equals("lost+found") && dir.inodeNum == LOST_FOUND_INODE ? LOST_FOUND_MODE : DIR_MODE,
+                (long)blocks.size() * blockSize, 2 + subdirs, layout);
+    }
+
+    /**
+     * Writes a file: its data, a run of contiguous blocks at a time, its indirect blocks, then its inode.
+     * A sparse file leaves chunks of its blocks as holes, as {@link #isHole(int, long, double)} picks them, and fragmentation moves each block elsewhere in the volume with that probability
+     */
+    private void writeFile(Node file) throws IOException
+    {
+        Layout layout = new Layout(dataGoal(file));
+        long blocks = (file.size + blockSize - 1) / blockSize;
+        ByteBuffer run = ByteBuffer.allocate(RUN_BUFFER);
+        long runStart = -1;
+        for (long logical = 0; logical < blocks; logical++)
+        {
+            if (isHole(file.inodeNum, logical, file.holes))
+            {
+                continue;
+            }
+            int physical = layout.allocate(logical, logical > 0 && fragmentation > 0 && random.nextDouble() < fragmentation);
+            if (runStart >= 0 && (physical != runStart + run.position() / blockSize || run.remaining() < blockSize))
+            {
+                run.flip();
+                write(run, runStart);
+                run.clear();
+                runStart = -1;
+            }
+            if (runStart < 0)
+            {
+                runStart = physical;
+            }
+            long offset = logical * blockSize;
+            int length = (int)Math.min(blockSize, file.size - offset);
+            for (int i = 0; i < length; i++)
+            {
+                run.put(expectedByte(file.inodeNum, offset + i));
+            }
+            run.position(run.position() + blockSize - length);
+            bytesWritten += length;
+        }
+        if (runStart >= 0)
+        {
+            run.flip();
+            write(run, runStart);
+        }
+        layout.writeIndirect();
+        largeFiles |= file.size > Integer.MAX_VALUE;
+        writeInode(file.inodeNum, FILE_MODE, file.size, 1, layout);
+        filesWritten++;
+    }
+
+    /**
+     * Writes an inode record into its group's inode table
+     */
+    private void writeInode(int inodeNum, int mode, long size, int links, Layout layout) throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate(INODE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putShort(0, (short)mode);
+        record.putInt(4, (int)size);
+        record.putInt(8, TIME);
+        record.putInt(12, TIME);
+        record.putInt(16, TIME);
+        record.putShort(26, (short)links);
+        record.putInt(28, (int)layout.sectors);
+        for (int i = 0; i < layout.pointers.length; i++)
+        {
+            record.putInt(40 + 4 * i, layout.pointers[i]);
+        }
+        if ((mode & 0xf000) == 0x8000)
+        {
+            record.putInt(108, (int)(size >>> 32));
+        }
+        int group = (inodeNum - 1) / inodesPerGroup;
+        long table = groupStart(group) + 3 + gdtBlocks;
+        channel.write(record, table * blockSize + (long)((inodeNum - 1) % inodesPerGroup) * INODE_SIZE);
+    }
+
+    /**
+     * Writes the bitmaps of every group, then a copy of the superblock and descriptor table at the start of every group
+     */
+    private void writeMetadata() throws IOException
+    {
+        ByteBuffer gdt = ByteBuffer.allocate(gdtBlocks * blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        long freeBlocks = 0;
+        long freeInodes = 0;
+        for (int g = 0; g < groups; g++)
+        {
+            long start = groupStart(g);
+            BitSet blocks = blockBitmap.get((int)start, (int)(start + blocksPerGroup));
+            BitSet inodes = inodeBitmap.get(g * inodesPerGroup + 1, (g + 1) * inodesPerGroup + 1);
+            inodes.set(inodesPerGroup, 8 * blockSize);  //padding past the last inode of the group is marked in use
+            write(bitmap(blocks), start + 1 + gdtBlocks);
+            write(bitmap(inodes), start + 2 + gdtBlocks);
+            int groupFreeBlocks = blocksPerGroup - blocks.cardinality();
+            int groupFreeInodes = inodesPerGroup - inodes.get(0, inodesPerGroup).cardinality();
+            gdt.putInt(g * 32, (int)(start + 1 + gdtBlocks));
+            gdt.putInt(g * 32 + 4, (int)(start + 2 + gdtBlocks));
+            gdt.putInt(g * 32 + 8, (int)(start + 3 + gdtBlocks));
+            gdt.putShort(g * 32 + 12, (short)groupFreeBlocks);
+            gdt.putShort(g * 32 + 14, (short)groupFreeInodes);
+            gdt.putShort(g * 32 + 16, (short)usedDirs[g]);
+            freeBlocks += groupFreeBlocks;
+            freeInodes += groupFreeInodes;
+        }
+        byte[] uuid = new byte[16];
+        random.nextBytes(uuid);
+        for (int g = 0; g < groups; g++)
+        {
+            ByteBuffer sb = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+            sb.putInt(0, groups * inodesPerGroup);
+            sb.putInt(4, (int)totalBlocks);
+            sb.putInt(12, (int)freeBlocks);
+            sb.putInt(16, (int)freeInodes);
+            sb.putInt(20, firstDataBlock);
+            sb.putInt(24, Integer.numberOfTrailingZeros(blockSize) - 10);
+            sb.putInt(28, Integer.numberOfTrailingZeros(blockSize) - 10);
+            sb.putInt(32, blocksPerGroup);
+            sb.putInt(36, blocksPerGroup);
+            sb.putInt(40, inodesPerGroup);
+            sb.putInt(48, TIME);
+            sb.putShort(54, (short)-1);         //maximum mount count, unlimited
+            sb.putShort(56, (short)0xef53);     //magic
+            sb.putShort(58, (short)1);          //state, clean
+            sb.putShort(60, (short)1);          //on errors, continue
+            sb.putInt(64, TIME);
+            sb.putInt(76, 1);                   //revision
+            sb.putInt(84, FIRST_INODE);
+            sb.putShort(88, (short)INODE_SIZE);
+            sb.putShort(90, (short)g);
+            sb.putInt(96, 0x2);                 //incompatible features: filetype
+            sb.putInt(100, largeFiles ? 0x2 : 0); //read only compatible features: large_file
+            sb.position(104);
+            sb.put(uuid);
+            byte[] name = label.getBytes(StandardCharsets.UTF_8);
+            sb.position(120);
+            sb.put(name, 0, Math.min(16, name.length));
+            sb.clear();
+            long start = groupStart(g);
+            channel.write(sb, g == 0 ? 1024 : start * blockSize);
+            gdt.clear();
+            write(gdt, start + 1);
+        }
+    }
+
+    /**
+     * Returns a group bitmap as a block, bit <code>i</code> of the set at bit <code>i % 8</code> of byte <code>i / 8</code>
+     */
+    private ByteBuffer bitmap(BitSet bits)
+    {
+        byte[] bytes = new byte[blockSize];
+        byte[] set = bits.toByteArray();
+        System.arraycopy(set, 0, bytes, 0, Math.min(set.length, blockSize));
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Writes a buffer's remaining bytes at the start of a block
+     */
+    private void write(ByteBuffer buf, long block) throws IOException
+    {
+        long position = block * blockSize;
+        while (buf.hasRemaining())
+        {
+            position += channel.write(buf, position);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package bench;
+
+import java.io.Closeable;
+
+/**
+ * The read paths of an open image, as the JMH benchmarks drive them. JMH will not generate benchmarks in the default package, where the reader's
+ * classes live, and a named package cannot refer to those classes, so the benchmarks reach them through this interface and
+ * its one implementation, <code>Ext2ImageTarget</code>, which is in the default package
+ */
+public interface ImageTarget extends Closeable
+{
+    /**
+     * Opens an image and walks its whole tree once to pick the benchmark targets
+     * @param image path of the image
+     * @return the open image
+     * @throws ReflectiveOperationException if <code>Ext2ImageTarget</code> cannot be loaded
+     */
+    static ImageTarget open(String image) throws ReflectiveOperationException
+    {
+        return (ImageTarget)Class.forName("Ext2ImageTarget").getConstructor(String.class).newInstance(image);
+    }
+
+    /**
+     * Returns the block size of the image
+     * @return the block size
+     */
+    int blockSize();
+
+    /**
+     * Returns the number of inodes found by the walk
+     * @return the number of inodes
+     */
+    int inodeCount();
+
+    /**
+     * Looks up one of the inodes found by the walk
+     * @param index index of the inode, from 0 to <code>inodeCount() - 1</code>
+     * @return the inode's mode
+     */
+    int lookupInode(int index);
+
+    /**
+     * Empties the inode cache, so that the next lookup reads the inode table
+     */
+    void clearInodeCache();
+
+    /**
+     * Returns the number of directories found by the walk
+     * @return the number of directories
+     */
+    int directoryCount();
+
+    /**
+     * Returns the number of entries in a directory
+     * @param rank rank of the directory by number of entries, from 0 for the smallest
+     * @return the number of entries
+     */
+    int directoryEntries(int rank);
+
+    /**
+     * Lists a directory, decoding all of its entries
+     * @param rank rank of the directory by number of entries, from 0 for the smallest
+     * @return the entries
+     */
+    Object listDirectory(int rank);
+
+    /**
+     * Returns the depth of the deepest directory, counting the root as 0
+     * @return the depth
+     */
+    int maxDepth();
+
+    /**
+     * Resolves the path to the ancestor of the deepest directory at a given depth
+     * @param depth depth to resolve, from 1 to <code>maxDepth()</code>
+     * @return the entries of the directory resolved
+     */
+    Object resolvePath(int depth);
+
+    /**
+     * Empties the dentry cache, so that the next resolution reads every directory along the path
+     */
+    void clearDentryCache();
+
+    /**
+     * Opens the largest regular file in the image
+     * @return the file, or <code>null</code> if the image holds none
+     */
+    FileTarget openLargestFile();
+}
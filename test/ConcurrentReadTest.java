@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests sharing one <code>Volume</code> between threads. Each thread opens its own <code>Ext2File</code>s, as callers are meant to,
+ * and mixes random ranges, sequential reads that set off read-ahead and path lookups through the dentry and inode caches
+ */
+public class ConcurrentReadTest
+{
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 400;
+    private static final int MAX_RANDOM_READ = 64 * 1024;
+    private static final int SEQUENTIAL_CHUNK = 16 * 1024;
+    private static final int SMALL_CACHE = 16;
+
+    static Stream<Arguments> volumes()
+    {
+        return Stream.of(Volume.IoMode.values()).flatMap(mode -> Stream.of(Arguments.of(mode, false), Arguments.of(mode, true)));
+    }
+
+    /**
+     * Checks every read of many threads against the generated bytes, with default caches and with caches and a read-ahead pool a few blocks large,
+     * so that evictions race with reads
+     */
+    @ParameterizedTest
+    @MethodSource("volumes")
+    void threadsSharingAVolumeReadTheGeneratedBytes(Volume.IoMode mode, boolean smallCaches) throws Exception
+    {
+        try (Volume vol = new Volume(TestImages.standard().toString(), mode))
+        {
+            if (smallCaches)
+            {
+                vol.setBlockCacheCapacity(SMALL_CACHE);
+                vol.setInodeCacheCapacity(SMALL_CACHE);
+                vol.setDentryCacheCapacity(SMALL_CACHE);
+                vol.setReadAhead(2, SMALL_CACHE / 2);
+            }
+            List<TestImages.Entry> files = TestImages.files(vol);
+            TestImages.inParallel(THREADS, thread ->
+            {
+                Random random = new Random(thread);
+                for (int i = 0; i < OPERATIONS; i++)
+                {
+                    TestImages.Entry file = files.get(random.nextInt(files.size()));
+                    switch (random.nextInt(3))
+                    {
+                        case 0: readRandom(vol, file, random); break;
+                        case 1: readSequential(vol, file, random); break;
+                        default: lookup(vol, file); break;
+                    }
+                }
+            });
+        }
+    }
+
+    private static void readRandom(Volume vol, TestImages.Entry entry, Random random)
+    {
+        Ext2File file = new Ext2File(vol, entry.info);
+        long start = (long)(random.nextDouble() * (file.size() + 1));
+        int length = random.nextInt(MAX_RANDOM_READ + 1);
+        byte[] read = file.read(start, length);
+        assertEquals(Math.min(length, file.size() - start), read.length, entry.path + ": bytes read at " + start);
+        TestImages.assertContents(entry, vol.getBlockSize(), start, read, 0, read.length);
+    }
+
+    private static void readSequential(Volume vol, TestImages.Entry entry, Random random)
+    {
+        Ext2File file = new Ext2File(vol, entry.info);
+        file.seek((long)(random.nextDouble() * (file.size() + 1)));
+        for (int chunks = 1 + random.nextInt(32); chunks > 0 && file.position() < file.size(); chunks--)
+        {
+            long start = file.position();
+            byte[] read = file.read(SEQUENTIAL_CHUNK);
+            assertEquals(start + read.length, file.position(), entry.path + ": position after reading at " + start);
+            TestImages.assertContents(entry, vol.getBlockSize(), start, read, 0, read.length);
+        }
+    }
+
+    private static void lookup(Volume vol, TestImages.Entry entry) throws NoSuchDirectoryException, RootReachedException
+    {
+        int slash = entry.path.lastIndexOf('/');
+        Directory dir = new Directory(vol, vol.getLabel() + (slash < 0 ? "" : "/" + entry.path.substring(0, slash)), "");
+        FileInfo found = dir.lookup(entry.path.substring(slash + 1));
+        assertNotNull(found, entry.path);
+        assertEquals(entry.info.getInodeNum(), found.getInodeNum(), entry.path);
+    }
+
+    /**
+     * Reads random blocks of random files in batches through <code>getBlocksAsync</code> from many threads at once, so that batches queue behind the in-flight limit,
+     * with holes asked for as block 0
+     */
+    @ParameterizedTest
+    @MethodSource("volumes")
+    void asyncBatchesReturnTheGeneratedBlocks(Volume.IoMode mode, boolean smallCaches) throws Exception
+    {
+        try (Volume vol = new Volume(TestImages.standard().toString(), mode))
+        {
+            if (smallCaches)
+            {
+                vol.setBlockCacheCapacity(SMALL_CACHE);
+            }
+            List<TestImages.Entry> files = TestImages.files(vol);
+            int blockSize = vol.getBlockSize();
+            TestImages.inParallel(THREADS, thread ->
+            {
+                Random random = new Random(thread);
+                for (int i = 0; i < OPERATIONS / 8; i++)
+                {
+                    TestImages.Entry[] entries = new TestImages.Entry[1 + random.nextInt(64)];
+                    long[] logicals = new long[entries.length];
+                    int[] blockNums = new int[entries.length];
+                    for (int k = 0; k < entries.length; k++)
+                    {
+                        Ext2File file;
+                        do
+                        {
+                            entries[k] = files.get(random.nextInt(files.size()));
+                            file = new Ext2File(vol, entries[k].info);
+                        }
+                        while (file.size() == 0);
+                        ExtentMap runs = file.getExtents();
+                        logicals[k] = (long)(random.nextDouble() * ((file.size() + blockSize - 1) / blockSize));
+                        int run = runs.findRun(logicals[k]);
+                        blockNums[k] = (run < 0 ? 0 : (int)(runs.getPhysicalStart(run) + logicals[k] - runs.getLogicalStart(run)));
+                    }
+                    ByteBuffer[] blocks = vol.getBlocksAsync(blockNums).get();
+                    for (int k = 0; k < entries.length; k++)
+                    {
+                        byte[] data = new byte[blockSize];
+                        blocks[k].get(0, data);
+                        long size = new Ext2File(vol, entries[k].info).size();
+                        TestImages.assertContents(entries[k], blockSize, logicals[k] * blockSize, data, 0, (int)Math.min(blockSize, size - logicals[k] * blockSize));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Asks for blocks after a volume is closed, which must fail at once rather than hang or leave a read counted as in flight
+     */
+    @Test
+    void asyncReadsAfterCloseFailFast() throws Exception
+    {
+        for (Volume.IoMode mode : Volume.IoMode.values())
+        {
+            Volume vol = new Volume(TestImages.standard().toString(), mode);
+            vol.getBlocksAsync(new int[] {1, 2, 3}).get();
+            vol.close();
+            CompletableFuture<ByteBuffer[]> late = vol.getBlocksAsync(new int[] {4});
+            ExecutionException e = assertThrows(ExecutionException.class, late::get);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            vol.close(); //returns, as nothing is left in flight
+        }
+    }
+
+    /**
+     * Closes a volume straight after sequential reads have queued read-ahead, which must finish quietly rather than fail on a closed channel
+     */
+    @Test
+    void closeLetsQueuedReadAheadFinish() throws Exception
+    {
+        Queue<Throwable> uncaught = new ConcurrentLinkedQueue<>();
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+        try
+        {
+            for (int round = 0; round < 20; round++)
+            {
+                Volume vol = new Volume(TestImages.standard().toString(), Volume.IoMode.RANDOM_ACCESS);
+                Directory root = new Directory(vol, vol.getLabel(), 2);
+                Ext2File file = new Ext2File(vol, root.lookup("big-0.dat"));
+                for (int i = 0; i < 8; i++)
+                {
+                    file.read(SEQUENTIAL_CHUNK);
+                }
+                long requests = vol.getPrefetchRequests();
+                assertTrue(requests > 0, "sequential reads queued no read-ahead");
+                vol.close();
+                vol.prefetch(100, 4);
+                assertEquals(requests, vol.getPrefetchRequests(), "read-ahead asked for after close");
+            }
+        }
+        finally
+        {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+        assertTrue(uncaught.isEmpty(), "background reads failed: " + uncaught);
+    }
+}
@@ -0,0 +1,194 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests <code>ImageServer</code> on a loopback port. Byte range requests at <code>/cat/</code> come from many client threads at once,
+ * and every status, <code>Content-Range</code> and body is checked against the bytes the generator wrote
+ */
+public class ImageServerTest
+{
+    private static final int THREADS = 16;
+    private static final int REQUESTS = 100;       //per thread
+    private static final long MAX_BODY = 1L << 20;  //longest range requested at random
+    private static final int EMPTY_THREADS = 32;
+    private static final int EMPTY_REQUESTS = 100; //per thread, enough load to reset connections if an empty body mishandles them
+
+    private static Volume vol;
+    private static ImageServer server;
+    private static HttpClient http;
+    private static List<TestImages.Entry> files;
+
+    @BeforeAll
+    static void start() throws IOException
+    {
+        vol = new Volume(TestImages.standard().toString());
+        files = TestImages.files(vol);
+        server = new ImageServer(vol, 0);
+        server.start();
+        http = HttpClient.newHttpClient();
+    }
+
+    @AfterAll
+    static void stop() throws IOException
+    {
+        server.stop();
+        vol.close();
+    }
+
+    private static HttpResponse<byte[]> get(String path, String range) throws IOException, InterruptedException, URISyntaxException
+    {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(new URI("http", null, "127.0.0.1", server.getPort(), path, null, null));
+        if (range != null)
+        {
+            builder.header("Range", range);
+        }
+        return http.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String text(HttpResponse<byte[]> response)
+    {
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    private static TestImages.Entry file(String path)
+    {
+        return files.stream().filter(f -> f.path.equals(path)).findFirst().get();
+    }
+
+    /**
+     * Requests a range of a file and checks the response
+     * @param file file to request
+     * @param range the <code>Range</code> header, or <code>null</code> for the whole file
+     * @param start offset of the first byte expected, ignored for the whole file
+     * @param end offset past the last byte expected, or -1 if the range is past the end and must get 416
+     */
+    private static void assertRange(TestImages.Entry file, String range, long start, long end) throws Exception
+    {
+        long size = new Ext2File(vol, file.info).size();
+        String what = file.path + " " + (range == null ? "whole file" : range) + " of " + size;
+        HttpResponse<byte[]> response = get("/cat/" + file.path, range);
+        if (end < 0)
+        {
+            assertEquals(416, response.statusCode(), what);
+            assertEquals("bytes */" + size, response.headers().firstValue("Content-Range").orElse(""), what);
+            return;
+        }
+        if (range == null)
+        {
+            assertEquals(200, response.statusCode(), what);
+            start = 0;
+        }
+        else
+        {
+            assertEquals(206, response.statusCode(), what);
+            assertEquals("bytes " + start + "-" + (end - 1) + "/" + size, response.headers().firstValue("Content-Range").orElse(""), what);
+        }
+        assertEquals(end - start, response.body().length, what + ": length of the body");
+        TestImages.assertContents(file, vol.getBlockSize(), start, response.body(), 0, response.body().length);
+    }
+
+    /**
+     * Mixes whole files, <code>first-last</code>, <code>first-</code> and <code>-suffix</code> ranges and ranges past the end, from many threads at once
+     */
+    @Test
+    void concurrentRangeRequestsGetTheGeneratedBytes() throws Exception
+    {
+        TestImages.inParallel(THREADS, thread ->
+        {
+            Random random = new Random(thread);
+            for (int i = 0; i < REQUESTS; i++)
+            {
+                TestImages.Entry file = files.get(random.nextInt(files.size()));
+                long size = new Ext2File(vol, file.info).size();
+                long first = (long)(random.nextDouble() * size);
+                long last = first + (long)(random.nextDouble() * Math.min(size - first, MAX_BODY));
+                long suffix = 1 + (long)(random.nextDouble() * Math.min(size, MAX_BODY));
+                switch (random.nextInt(5))
+                {
+                    case 0: assertRange(file, null, 0, size); break;
+                    case 1: assertRange(file, "bytes=" + first + "-" + last, first, (first < size ? Math.min(size, last + 1) : -1)); break;
+                    case 2: assertRange(file, "bytes=" + first + "-", first, (first < size ? size : -1)); break;
+                    case 3: assertRange(file, "bytes=-" + suffix, Math.max(0, size - suffix), (size > 0 ? size : -1)); break;
+                    default: assertRange(file, "bytes=" + (size + random.nextInt(1000)) + "-", 0, -1); break;
+                }
+            }
+        });
+    }
+
+    @Test
+    void rangesAreClampedToTheFile() throws Exception
+    {
+        TestImages.Entry big = file("big-0.dat");
+        long size = new Ext2File(vol, big.info).size();
+        assertRange(big, "bytes=0-0", 0, 1);
+        assertRange(big, "bytes=" + (size - 10) + "-" + (size + 100), size - 10, size);
+        assertRange(big, "bytes=-" + (size + 100), 0, size);
+        assertRange(big, "bytes=" + size + "-", 0, -1);
+        assertRange(big, "bytes=-0", 0, -1);
+    }
+
+    /**
+     * Requests empty files from many threads at once, interleaved with other files on the same kept-alive connections, which an empty body must leave usable
+     */
+    @Test
+    void emptyFilesGetAnEmptyBody() throws Exception
+    {
+        List<TestImages.Entry> empty = files.stream().filter(f -> new Ext2File(vol, f.info).size() == 0).toList();
+        assertFalse(empty.isEmpty(), "the image has no empty file");
+        TestImages.inParallel(EMPTY_THREADS, thread ->
+        {
+            Random random = new Random(thread);
+            for (int i = 0; i < EMPTY_REQUESTS; i++)
+            {
+                TestImages.Entry f = empty.get(random.nextInt(empty.size()));
+                assertRange(f, null, 0, 0);
+                assertRange(f, "bytes=0-", 0, -1);
+                TestImages.Entry other = files.get(random.nextInt(files.size()));
+                long size = new Ext2File(vol, other.info).size();
+                assertRange(other, "bytes=-1", Math.max(0, size - 1), (size > 0 ? size : -1));
+            }
+        });
+    }
+
+    @Test
+    void missingFileGets404() throws Exception
+    {
+        assertEquals(404, get("/cat/no-such-file", null).statusCode());
+        assertEquals(404, get("/cat/dir-0", null).statusCode());
+        assertEquals(404, get("/ls/no-such-dir", null).statusCode());
+    }
+
+    @Test
+    void listOfAFileIsNotADirectory() throws Exception
+    {
+        HttpResponse<byte[]> response = get("/ls/big-0.dat", null);
+        assertEquals(404, response.statusCode());
+        assertEquals("Not a directory", text(response).trim());
+    }
+
+    @Test
+    void listedPathsAreRelativeToTheRoot() throws Exception
+    {
+        HttpResponse<byte[]> root = get("/ls/", null);
+        assertEquals(200, root.statusCode());
+        assertTrue(text(root).startsWith("{\"path\":\"\",\"entries\":["), text(root));
+        assertTrue(text(root).contains("{\"name\":\"big-0.dat\",\"inode\":" + file("big-0.dat").info.getInodeNum() + ",\"type\":\"file\""), text(root));
+        HttpResponse<byte[]> dir = get("/ls/dir-0/dir-1/", null);
+        assertEquals(200, dir.statusCode());
+        assertTrue(text(dir).startsWith("{\"path\":\"dir-0/dir-1\",\"entries\":["), text(dir));
+    }
+}
@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests 64 bit offsets on volumes and files larger than 4 GiB. The images hold a 4100 MiB file that is almost all holes, with its data fragmented across the volume,
+ * so each costs only megabytes on disk, and in 1 KiB blocks the file reaches triple indirection
+ */
+public class LargeFileTest
+{
+    private static final long FOUR_GIB = 1L << 32;
+    private static final long BIG_SIZE = 4100L << 20;
+    private static final double BIG_HOLES = 0.995;
+    private static final int MAX_CHUNKS_READ = 64;     //data chunks past 4 GiB read in each test
+
+    @TempDir
+    Path tmp;
+
+    static Stream<Arguments> volumes()
+    {
+        return Stream.of(1024, 4096).flatMap(blockSize -> Stream.of(Volume.IoMode.values()).map(mode -> Arguments.of(blockSize, mode)));
+    }
+
+    private static Path image(int blockSize)
+    {
+        return TestImages.image("large-" + blockSize, "-b", String.valueOf(blockSize), "-depth", "0", "-files", "4", "-sparse", "1", "-frag", "0.3",
+                "-big", String.valueOf(BIG_SIZE), "-bigholes", String.valueOf(BIG_HOLES));
+    }
+
+    private static TestImages.Entry bigFile(Volume vol)
+    {
+        return TestImages.files(vol, BIG_HOLES).stream().filter(f -> f.path.equals("big-0.dat")).findFirst().get();
+    }
+
+    /**
+     * Returns the offsets of the chunks of the big file past a point that hold data, as the generator placed them
+     * @param vol the volume
+     * @param file the big file
+     * @param from offset to search from
+     * @return the offsets of up to <code>MAX_CHUNKS_READ</code> chunks
+     */
+    private static List<Long> dataChunks(Volume vol, TestImages.Entry file, long from)
+    {
+        List<Long> chunks = new ArrayList<>();
+        int blockSize = vol.getBlockSize();
+        for (long logical = from / blockSize; logical * blockSize < BIG_SIZE && chunks.size() < MAX_CHUNKS_READ; logical += 8)
+        {
+            if (!ImageGenerator.isHole(file.info.getInodeNum(), logical, file.holes))
+            {
+                chunks.add(logical * blockSize);
+            }
+        }
+        return chunks;
+    }
+
+    @ParameterizedTest
+    @MethodSource("volumes")
+    void volumeAndFileAreLargerThan4GiB(int blockSize, Volume.IoMode mode) throws IOException
+    {
+        try (Volume vol = new Volume(image(blockSize).toString(), mode))
+        {
+            assertTrue(Integer.toUnsignedLong(vol.getSuperBlock().getNumBlocks()) * vol.getBlockSize() > FOUR_GIB);
+            TestImages.Entry big = bigFile(vol);
+            assertEquals(BIG_SIZE, vol.getInode(big.info.getInodeNum()).getSize());
+            assertEquals(BIG_SIZE, new Ext2File(vol, big.info).size());
+        }
+    }
+
+    /**
+     * Reads across 2 GiB and 4 GiB, at the end of the file, and over the edges of every data chunk past 4 GiB, where a truncated offset would read other bytes
+     */
+    @ParameterizedTest
+    @MethodSource("volumes")
+    void readsPast4GiBReturnTheGeneratedBytes(int blockSize, Volume.IoMode mode) throws IOException
+    {
+        try (Volume vol = new Volume(image(blockSize).toString(), mode))
+        {
+            TestImages.Entry big = bigFile(vol);
+            Ext2File file = new Ext2File(vol, big.info);
+            int chunk = 8 * blockSize;
+            List<Long> offsets = new ArrayList<>(List.of((1L << 31) - 100, FOUR_GIB - 100, BIG_SIZE - chunk));
+            List<Long> chunks = dataChunks(vol, big, FOUR_GIB);
+            assertFalse(chunks.isEmpty(), "no data past 4 GiB");
+            for (long c : chunks)
+            {
+                offsets.add(c - 100);
+            }
+            for (long offset : offsets)
+            {
+                byte[] data = file.read(offset, chunk + 200);
+                assertEquals(Math.min(chunk + 200, BIG_SIZE - offset), data.length, "bytes read at " + offset);
+                TestImages.assertContents(big, blockSize, offset, data, 0, data.length);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("volumes")
+    void seekAndPositionKeep64BitOffsets(int blockSize, Volume.IoMode mode) throws IOException
+    {
+        try (Volume vol = new Volume(image(blockSize).toString(), mode))
+        {
+            TestImages.Entry big = bigFile(vol);
+            Ext2File file = new Ext2File(vol, big.info);
+            long offset = dataChunks(vol, big, FOUR_GIB).get(0) + 5;
+            file.seek(offset);
+            assertEquals(offset, file.position());
+            byte[] data = file.read(1000);
+            assertEquals(offset + 1000, file.position());
+            TestImages.assertContents(big, blockSize, offset, data, 0, data.length);
+            file.seek(BIG_SIZE - 10);
+            assertEquals(10, file.read(100).length);
+            assertEquals(BIG_SIZE, file.position());
+            assertEquals(0, file.read(1).length);
+            assertEquals(BIG_SIZE, file.position());
+        }
+    }
+
+    /**
+     * Copies every file to the host: the small sparse ones are checked whole, the big one at its data past 4 GiB and its size,
+     * and each must report transferring only the bytes outside its holes
+     */
+    @ParameterizedTest
+    @MethodSource("volumes")
+    void copyToKeepsHolesAndData(int blockSize, Volume.IoMode mode) throws IOException
+    {
+        try (Volume vol = new Volume(image(blockSize).toString(), mode))
+        {
+            for (TestImages.Entry f : TestImages.files(vol, BIG_HOLES))
+            {
+                Ext2File file = new Ext2File(vol, f.info);
+                Path target = tmp.resolve("copy");
+                long copied = file.copyTo(target);
+                long data = 0;
+                for (long logical = 0; logical * blockSize < file.size(); logical++)
+                {
+                    data += (ImageGenerator.isHole(f.info.getInodeNum(), logical, f.holes) ? 0 : Math.min(blockSize, file.size() - logical * blockSize));
+                }
+                assertEquals(data, copied, f.path + ": bytes transferred");
+                assertEquals(file.size(), Files.size(target), f.path + ": size of the copy");
+                List<Long> offsets = new ArrayList<>();
+                if (f.path.startsWith("big-"))
+                {
+                    offsets.addAll(dataChunks(vol, f, FOUR_GIB));
+                }
+                else
+                {
+                    for (long offset = 0; offset < file.size(); offset += 8 * blockSize)
+                    {
+                        offsets.add(offset);
+                    }
+                }
+                try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ))
+                {
+                    for (long offset : offsets)
+                    {
+                        ByteBuffer buf = ByteBuffer.allocate((int)Math.min(8 * blockSize, file.size() - offset));
+                        while (buf.hasRemaining() && in.read(buf, offset + buf.position()) >= 0)
+                        {
+                            //fill the chunk
+                        }
+                        TestImages.assertContents(f, blockSize, offset, buf.array(), 0, buf.position());
+                    }
+                }
+                Files.delete(target);
+            }
+        }
+    }
+}
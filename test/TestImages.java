@@ -0,0 +1,233 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fixture shared by the tests: synthetic images from <code>ImageGenerator</code>, generated once per test run into a temporary directory,
+ * and checks of what the reader returns against the bytes the generator wrote, as <code>ImageGenerator.expectedByte</code> and <code>ImageGenerator.isHole</code> give them,
+ * so that no test compares the reader with itself
+ */
+final class TestImages
+{
+    /**
+     * A regular file of an image, with its path relative to the root
+     */
+    static final class Entry
+    {
+        final String path;
+        final FileInfo info;
+        final double holes;     //fraction of the file's chunks the generator left as holes
+
+        Entry(String path, FileInfo info, double holes)
+        {
+            this.path = path;
+            this.info = info;
+            this.holes = holes;
+        }
+    }
+
+    /**
+     * Work run on each of several threads at once
+     */
+    interface ThreadTask
+    {
+        /**
+         * Runs the work of one thread
+         * @param thread index of the thread, from 0
+         * @throws Exception if the work fails
+         */
+        void run(int thread) throws Exception;
+    }
+
+    private static final Map<String, Path> images = new HashMap<>();
+    private static Path dir;
+
+    private TestImages()
+    {
+    }
+
+    /**
+     * Returns an image of a few hundred files of up to 512 KiB in 1 KiB blocks, some sparse and some fragmented, plus one file reaching double indirection
+     * @return path of the image
+     */
+    static Path standard()
+    {
+        return image("standard", "-b", "1024", "-fanout", "3", "-depth", "2", "-files", "8", "-max", "512K", "-sparse", "0.3", "-frag", "0.1", "-big", "3M");
+    }
+
+    /**
+     * Returns an image generated with the given options, generating it on first use
+     * @param name name of the image, unique to its options
+     * @param options <code>ImageGenerator</code> options other than <code>-o</code>
+     * @return path of the image
+     */
+    static synchronized Path image(String name, String... options)
+    {
+        Path image = images.get(name);
+        if (image == null)
+        {
+            try
+            {
+                if (dir == null)
+                {
+                    dir = Files.createTempDirectory("ext2-test-images");
+                    dir.toFile().deleteOnExit();
+                }
+                image = dir.resolve(name + ".img");
+                File file = image.toFile();
+                file.deleteOnExit();
+                List<String> args = new ArrayList<>(List.of("-o", image.toString()));
+                args.addAll(List.of(options));
+                ImageGenerator.main(args.toArray(new String[0]));
+                assertTrue(file.length() > 0, "ImageGenerator did not write " + name + " from " + args);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            images.put(name, image);
+        }
+        return image;
+    }
+
+    /**
+     * Lists every regular file of a volume generated without <code>-bigholes</code>
+     * @param vol volume to list
+     * @return the files, sorted by path
+     */
+    static List<Entry> files(Volume vol)
+    {
+        return files(vol, 0);
+    }
+
+    /**
+     * Lists every regular file of a volume, telling from their names which the generator made sparse
+     * @param vol volume to list
+     * @param bigHoles the <code>-bigholes</code> fraction the image was generated with
+     * @return the files, sorted by path
+     */
+    static List<Entry> files(Volume vol, double bigHoles)
+    {
+        ConcurrentLinkedQueue<Entry> found = new ConcurrentLinkedQueue<>();
+        new TreeWalk(vol, 2).walk(new Directory(vol, vol.getLabel(), 2), "", new TreeWalk.Visitor<String>()
+        {
+            @Override
+            public String enterDirectory(Directory d, String path)
+            {
+                return path;
+            }
+
+            @Override
+            public String entry(FileInfo entry, String path)
+            {
+                return (path.isEmpty() ? "" : path + "/") + entry.getName();
+            }
+
+            @Override
+            public void visitFile(FileInfo file, String path)
+            {
+                String name = file.getName();
+                found.add(new Entry(path, file, name.startsWith("sparse-") ? ImageGenerator.SPARSE_HOLES : name.startsWith("big-") ? bigHoles : 0));
+            }
+
+            @Override
+            public void failed(String path, RuntimeException e)
+            {
+                throw e;
+            }
+        });
+        List<Entry> files = new ArrayList<>(found);
+        files.sort((a, b) -> a.path.compareTo(b.path));
+        return files;
+    }
+
+    /**
+     * Returns the byte the generator wrote at an offset of a file, zero in a hole
+     * @param file the file
+     * @param blockSize block size of the image
+     * @param offset offset in the file
+     * @return the byte
+     */
+    static byte expectedByte(Entry file, int blockSize, long offset)
+    {
+        int inodeNum = file.info.getInodeNum();
+        return (ImageGenerator.isHole(inodeNum, offset / blockSize, file.holes) ? 0 : ImageGenerator.expectedByte(inodeNum, offset));
+    }
+
+    /**
+     * Asserts that bytes read from a file are those the generator wrote
+     * @param file the file read
+     * @param blockSize block size of the image
+     * @param offset offset in the file of the first byte
+     * @param data the bytes
+     * @param from index in <code>data</code> of the first byte
+     * @param count number of bytes to check
+     */
+    static void assertContents(Entry file, int blockSize, long offset, byte[] data, int from, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (data[from + i] != expectedByte(file, blockSize, offset + i))
+            {
+                assertEquals(expectedByte(file, blockSize, offset + i), data[from + i], file.path + ": byte at " + (offset + i));
+            }
+        }
+    }
+
+    /**
+     * Runs a task on several threads at once and waits for them all, rethrowing the first failure, assertion failures included
+     * @param threads number of threads
+     * @param task the work of each thread
+     * @throws Exception the first failure of any thread
+     */
+    static void inParallel(int threads, ThreadTask task) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++)
+            {
+                int thread = t;
+                done.add(pool.submit(() ->
+                {
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> f : done)
+            {
+                try
+                {
+                    f.get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof Error)
+                    {
+                        throw (Error)e.getCause();
+                    }
+                    throw (Exception)e.getCause();
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+}